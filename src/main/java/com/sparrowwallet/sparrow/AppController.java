@@ -3,6 +3,7 @@ package com.sparrowwallet.sparrow;
 import com.google.common.base.Charsets;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sparrowwallet.drongo.BitcoinUnit;
 import com.sparrowwallet.drongo.Network;
 import com.sparrowwallet.drongo.SecureString;
@@ -67,6 +68,8 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import static com.sparrowwallet.sparrow.AppServices.*;
@@ -80,6 +83,9 @@ public class AppController implements Initializable {
     public static final String LOADING_TRANSACTIONS_MESSAGE = "Loading wallet, select Transactions tab to view...";
     public static final String CONNECTION_FAILED_PREFIX = "Connection failed: ";
 
+    //Bounded to limit the memory used by concurrent Argon2 key derivations
+    private static final int MAX_CONCURRENT_WALLET_LOADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     @FXML
     private MenuItem saveTransaction;
 
@@ -696,12 +702,7 @@ public class AppController implements Initializable {
             FileType fileType = IOUtils.getFileType(file);
             if(FileType.JSON.equals(fileType)) {
                 Storage.WalletBackupAndKey walletBackupAndKey = storage.loadWallet();
-                checkWalletNetwork(walletBackupAndKey.wallet);
-                restorePublicKeysFromSeed(walletBackupAndKey.wallet, null);
-                if(!walletBackupAndKey.wallet.isValid()) {
-                    throw new IllegalStateException("Wallet file is not valid.");
-                }
-                addWalletTabOrWindow(storage, walletBackupAndKey.wallet, walletBackupAndKey.backupWallet, forceSameWindow);
+                addLoadedWallet(file, storage, walletBackupAndKey, forceSameWindow);
             } else if(FileType.BINARY.equals(fileType)) {
                 WalletPasswordDialog dlg = new WalletPasswordDialog(file.getName(), WalletPasswordDialog.PasswordRequirement.LOAD);
                 Optional<SecureString> optionalPassword = dlg.showAndWait();
@@ -713,32 +714,11 @@ public class AppController implements Initializable {
                 Storage.LoadWalletService loadWalletService = new Storage.LoadWalletService(storage, password);
                 loadWalletService.setOnSucceeded(workerStateEvent -> {
                     EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.END, "Done"));
-                    Storage.WalletBackupAndKey walletBackupAndKey = loadWalletService.getValue();
-                    try {
-                        checkWalletNetwork(walletBackupAndKey.wallet);
-                        restorePublicKeysFromSeed(walletBackupAndKey.wallet, walletBackupAndKey.key);
-                        addWalletTabOrWindow(storage, walletBackupAndKey.wallet, walletBackupAndKey.backupWallet, forceSameWindow);
-                    } catch(Exception e) {
-                        showErrorDialog("Error Opening Wallet", e.getMessage());
-                    } finally {
-                        walletBackupAndKey.key.clear();
-                    }
+                    addLoadedWallet(file, storage, loadWalletService.getValue(), forceSameWindow);
                 });
                 loadWalletService.setOnFailed(workerStateEvent -> {
                     EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.END, "Failed"));
-                    Throwable exception = loadWalletService.getException();
-                    if(exception instanceof InvalidPasswordException) {
-                        Optional<ButtonType> optResponse = showErrorDialog("Invalid Password", "The wallet password was invalid. Try again?", ButtonType.CANCEL, ButtonType.OK);
-                        if(optResponse.isPresent() && optResponse.get().equals(ButtonType.OK)) {
-                            Platform.runLater(() -> openWalletFile(file, forceSameWindow));
-                        }
-                    } else {
-                        if(!attemptImportWallet(file, password)) {
-                            log.error("Error Opening Wallet", exception);
-                            showErrorDialog("Error Opening Wallet", exception.getMessage() == null ? "Unsupported file format" : exception.getMessage());
-                        }
-                        password.clear();
-                    }
+                    handleWalletLoadFailure(file, password, loadWalletService.getException(), forceSameWindow);
                 });
                 EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.START, "Decrypting wallet..."));
                 loadWalletService.start();
@@ -746,10 +726,105 @@ public class AppController implements Initializable {
                 throw new IOException("Unsupported file type");
             }
         } catch(Exception e) {
-            if(!attemptImportWallet(file, null)) {
+            handleWalletLoadFailure(file, null, e, forceSameWindow);
+        }
+    }
+
+    /**
+     * Adds a wallet loaded from a wallet file, whether opened individually or loaded concurrently with other wallets
+     */
+    private void addLoadedWallet(File file, Storage storage, Storage.WalletBackupAndKey walletBackupAndKey, boolean forceSameWindow) {
+        try {
+            checkWalletNetwork(walletBackupAndKey.wallet);
+            restorePublicKeysFromSeed(walletBackupAndKey.wallet, walletBackupAndKey.key);
+            if(walletBackupAndKey.key == null && !walletBackupAndKey.wallet.isValid()) {
+                throw new IllegalStateException("Wallet file is not valid.");
+            }
+            addWalletTabOrWindow(storage, walletBackupAndKey.wallet, walletBackupAndKey.backupWallet, forceSameWindow);
+        } catch(Exception e) {
+            //An unencrypted file that is not a valid Sparrow wallet may be a wallet in another supported format
+            if(walletBackupAndKey.key != null || !attemptImportWallet(file, null)) {
                 log.error("Error opening wallet", e);
                 showErrorDialog("Error Opening Wallet", e.getMessage() == null ? "Unsupported file format" : e.getMessage());
             }
+        } finally {
+            if(walletBackupAndKey.key != null) {
+                walletBackupAndKey.key.clear();
+            }
+        }
+    }
+
+    /**
+     * Handles a wallet file that could not be loaded, offering to retry an invalid password or otherwise attempting to import the file in another supported format
+     */
+    private void handleWalletLoadFailure(File file, SecureString password, Throwable exception, boolean forceSameWindow) {
+        if(exception instanceof InvalidPasswordException) {
+            Optional<ButtonType> optResponse = showErrorDialog("Invalid Password", "The wallet password was invalid. Try again?", ButtonType.CANCEL, ButtonType.OK);
+            if(optResponse.isPresent() && optResponse.get().equals(ButtonType.OK)) {
+                Platform.runLater(() -> openWalletFile(file, forceSameWindow));
+            }
+        } else {
+            if(!attemptImportWallet(file, password)) {
+                log.error("Error opening wallet", exception);
+                showErrorDialog("Error Opening Wallet", exception.getMessage() == null ? "Unsupported file format" : exception.getMessage());
+            }
+            if(password != null) {
+                password.clear();
+            }
+        }
+    }
+
+    /**
+     * Opens a list of wallet files, such as the recently opened wallets on startup, loading and decrypting them concurrently.
+     * Unencrypted wallets start loading immediately, and each encrypted wallet starts loading as soon as its password has been entered.
+     * Wallets are added in the order of the list as they complete loading.
+     */
+    public void openWalletFiles(List<File> walletFiles) {
+        List<FileType> fileTypes = walletFiles.parallelStream().map(IOUtils::getFileType).collect(Collectors.toList());
+
+        ExecutorService loadExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_WALLET_LOADS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("WalletLoadThread-%d").build());
+        Deque<WalletLoad> walletLoads = new ArrayDeque<>();
+        List<WalletLoad> encryptedWalletLoads = new ArrayList<>();
+        List<File> otherFiles = new ArrayList<>();
+        for(int i = 0; i < walletFiles.size(); i++) {
+            File file = walletFiles.get(i);
+            if(FileType.JSON.equals(fileTypes.get(i))) {
+                WalletLoad walletLoad = new WalletLoad(file, walletLoads);
+                walletLoads.add(walletLoad);
+                walletLoad.start(loadExecutor, null);
+            } else if(FileType.BINARY.equals(fileTypes.get(i))) {
+                WalletLoad walletLoad = new WalletLoad(file, walletLoads);
+                walletLoads.add(walletLoad);
+                encryptedWalletLoads.add(walletLoad);
+            } else {
+                otherFiles.add(file);
+            }
+        }
+
+        for(WalletLoad walletLoad : encryptedWalletLoads) {
+            WalletPasswordDialog dlg = new WalletPasswordDialog(walletLoad.file.getName(), WalletPasswordDialog.PasswordRequirement.LOAD);
+            Optional<SecureString> optionalPassword = dlg.showAndWait();
+            if(optionalPassword.isPresent()) {
+                walletLoad.start(loadExecutor, optionalPassword.get());
+            } else {
+                walletLoad.complete(null);
+            }
+        }
+
+        //Allows the started loads to complete, after which the threads are released
+        loadExecutor.shutdown();
+
+        for(File file : otherFiles) {
+            openWalletFile(file, false);
+        }
+    }
+
+    private void addLoadedWallets(Deque<WalletLoad> walletLoads) {
+        while(!walletLoads.isEmpty() && walletLoads.peekFirst().completed) {
+            WalletLoad walletLoad = walletLoads.removeFirst();
+            if(walletLoad.walletBackupAndKey != null) {
+                addLoadedWallet(walletLoad.file, walletLoad.storage, walletLoad.walletBackupAndKey, false);
+            }
         }
     }
 
@@ -960,7 +1035,7 @@ public class AppController implements Initializable {
             WalletTabData walletTabData = (WalletTabData) tabData;
             Wallet wallet = walletTabData.getWallet();
             Wallet pastWallet = wallet.copy();
-            walletTabData.getStorage().backupTempWallet();
+            walletTabData.getStorage().backupTempWallet(wallet);
             wallet.clearHistory();
             EventManager.get().post(new WalletAddressesChangedEvent(wallet, pastWallet, walletTabData.getStorage().getWalletFile()));
         }
@@ -1715,4 +1790,40 @@ public class AppController implements Initializable {
             openTransactionFromQR(null);
         }
     }
+
+    private class WalletLoad {
+        private final File file;
+        private final Storage storage;
+        private final Deque<WalletLoad> walletLoads;
+        private boolean completed;
+        private Storage.WalletBackupAndKey walletBackupAndKey;
+
+        public WalletLoad(File file, Deque<WalletLoad> walletLoads) {
+            this.file = file;
+            this.storage = new Storage(file);
+            this.walletLoads = walletLoads;
+        }
+
+        public void start(ExecutorService executor, SecureString password) {
+            Storage.LoadWalletService loadWalletService = new Storage.LoadWalletService(storage, password);
+            loadWalletService.setExecutor(executor);
+            loadWalletService.setOnSucceeded(workerStateEvent -> {
+                EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.END, "Done"));
+                complete(loadWalletService.getValue());
+            });
+            loadWalletService.setOnFailed(workerStateEvent -> {
+                EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.END, "Failed"));
+                complete(null);
+                handleWalletLoadFailure(file, password, loadWalletService.getException(), false);
+            });
+            EventManager.get().post(new StorageEvent(storage.getWalletFile(), TimedEvent.Action.START, password == null ? "Loading wallet..." : "Decrypting wallet..."));
+            loadWalletService.start();
+        }
+
+        public void complete(Storage.WalletBackupAndKey walletBackupAndKey) {
+            this.walletBackupAndKey = walletBackupAndKey;
+            this.completed = true;
+            addLoadedWallets(walletLoads);
+        }
+    }
 }
\ No newline at end of file
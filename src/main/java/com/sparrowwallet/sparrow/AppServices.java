@@ -9,12 +9,14 @@ import com.sparrowwallet.drongo.psbt.PSBT;
 import com.sparrowwallet.drongo.uri.BitcoinURI;
 import com.sparrowwallet.drongo.wallet.KeystoreSource;
 import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.sparrow.control.MempoolSizeFeeRatesChart;
 import com.sparrowwallet.sparrow.event.*;
 import com.sparrowwallet.sparrow.io.Config;
 import com.sparrowwallet.sparrow.io.Device;
 import com.sparrowwallet.sparrow.io.Hwi;
 import com.sparrowwallet.sparrow.io.Storage;
 import com.sparrowwallet.sparrow.net.*;
+import com.sparrowwallet.sparrow.wallet.SendController;
 import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -80,7 +82,7 @@ public class AppServices {
 
     private static Map<Integer, Double> targetBlockFeeRates;
 
-    private static final Map<Date, Set<MempoolRateSize>> mempoolHistogram = new TreeMap<>();
+    private static MempoolHistogram mempoolHistogram;
 
     private static Double minimumRelayFeeRate;
 
@@ -446,17 +448,22 @@ public class AppServices {
         return targetBlockFeeRates;
     }
 
-    public static Map<Date, Set<MempoolRateSize>> getMempoolHistogram() {
+    public static synchronized MempoolHistogram getMempoolHistogram() {
+        if(mempoolHistogram == null) {
+            mempoolHistogram = new MempoolHistogram(Storage.getMempoolHistogramFile(), MempoolSizeFeeRatesChart.MAX_PERIOD_HOURS, SendController.FEE_RATES_RANGE);
+        }
+
         return mempoolHistogram;
     }
 
     private void addMempoolRateSizes(Set<MempoolRateSize> rateSizes) {
+        MempoolHistogram histogram = getMempoolHistogram();
         LocalDateTime dateMinute = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
-        if(mempoolHistogram.isEmpty()) {
-            mempoolHistogram.put(Date.from(dateMinute.minusMinutes(1).atZone(ZoneId.systemDefault()).toInstant()), rateSizes);
+        if(histogram.isEmpty()) {
+            histogram.add(Date.from(dateMinute.minusMinutes(1).atZone(ZoneId.systemDefault()).toInstant()), rateSizes);
         }
 
-        mempoolHistogram.put(Date.from(dateMinute.atZone(ZoneId.systemDefault()).toInstant()), rateSizes);
+        histogram.add(Date.from(dateMinute.atZone(ZoneId.systemDefault()).toInstant()), rateSizes);
     }
 
     public static Double getMinimumRelayFeeRate() {
@@ -584,6 +591,7 @@ public class AppServices {
         }
 
         List<WalletTabData> allWallets = walletWindows.values().stream().flatMap(Collection::stream).collect(Collectors.toList());
+        TransactionCache.get().setOpenWallets(allWallets.stream().map(WalletTabData::getWallet).collect(Collectors.toList()));
 
         Platform.runLater(() -> {
             if(!Window.getWindows().isEmpty()) {
@@ -632,6 +640,11 @@ public class AppServices {
         onlineProperty.set(false);
     }
 
+    @Subscribe
+    public void walletHistoryChanged(WalletHistoryChangedEvent event) {
+        TransactionCache.get().updateOpenWalletTransactions(event.getWallet(), event.getHistoryChangedNodes());
+    }
+
     @Subscribe
     public void walletAddressesChanged(WalletAddressesChangedEvent event) {
         restartBwt(event.getWallet());
@@ -1,13 +1,37 @@
 package com.sparrowwallet.sparrow;
 
+import com.google.common.collect.MapMaker;
 import com.google.common.eventbus.EventBus;
+import com.sparrowwallet.drongo.wallet.Wallet;
+
+import java.util.Map;
 
 public class EventManager {
     private static EventBus SINGLETON = new EventBus();
 
+    //Weak keys are compared by identity, so each wallet instance has its own channel. Subscribers usually reference their wallet, so channels must be removed when the wallet is closed or replaced
+    private static final Map<Wallet, EventBus> walletEventBuses = new MapMaker().weakKeys().makeMap();
+
     private EventManager() {}
 
     public static EventBus get() {
         return SINGLETON;
     }
+
+    /**
+     * Returns the event channel for events that only concern a single wallet, so that subscribers are not invoked for the events of other wallets.
+     * Events posted to a wallet channel are not delivered to the application wide event bus.
+     */
+    public static EventBus get(Wallet wallet) {
+        return walletEventBuses.computeIfAbsent(wallet, w -> new EventBus());
+    }
+
+    /**
+     * Removes the event channel for a wallet, unregistering all of its subscribers
+     */
+    public static void remove(Wallet wallet) {
+        if(wallet != null) {
+            walletEventBuses.remove(wallet);
+        }
+    }
 }
@@ -7,9 +7,9 @@ import com.sparrowwallet.drongo.wallet.Wallet;
 import com.sparrowwallet.sparrow.glyphfont.FontAwesome5;
 import com.sparrowwallet.sparrow.glyphfont.FontAwesome5Brands;
 import com.sparrowwallet.sparrow.io.Config;
-import com.sparrowwallet.sparrow.io.FileType;
-import com.sparrowwallet.sparrow.io.IOUtils;
 import com.sparrowwallet.sparrow.io.Storage;
+import com.sparrowwallet.sparrow.io.WalletSaveScheduler;
+import com.sparrowwallet.sparrow.net.BlockHeaderStore;
 import com.sparrowwallet.sparrow.net.Bwt;
 import com.sparrowwallet.sparrow.net.PublicElectrumServer;
 import com.sparrowwallet.sparrow.net.ServerType;
@@ -94,18 +94,7 @@ public class MainApp extends Application {
 
         List<File> recentWalletFiles = Config.get().getRecentWalletFiles();
         if(recentWalletFiles != null) {
-            //Re-sort to preserve wallet order as far as possible. Unencrypted wallets will still be opened first.
-            List<File> encryptedWalletFiles = recentWalletFiles.stream().filter(file -> FileType.BINARY.equals(IOUtils.getFileType(file))).collect(Collectors.toList());
-            Collections.reverse(encryptedWalletFiles);
-            List<File> sortedWalletFiles = new ArrayList<>(recentWalletFiles);
-            sortedWalletFiles.removeAll(encryptedWalletFiles);
-            sortedWalletFiles.addAll(encryptedWalletFiles);
-
-            for(File walletFile : sortedWalletFiles) {
-                if(walletFile.exists()) {
-                    appController.openWalletFile(walletFile, false);
-                }
-            }
+            appController.openWalletFiles(recentWalletFiles.stream().filter(File::exists).collect(Collectors.toList()));
         }
 
         AppServices.get().start();
@@ -113,7 +102,10 @@ public class MainApp extends Application {
 
     @Override
     public void stop() throws Exception {
+        WalletSaveScheduler.flushAll();
         AppServices.get().stop();
+        BlockHeaderStore.shutdown();
+        Config.get().flushNow();
         mainStage.close();
     }
 
@@ -9,16 +9,25 @@ import javafx.beans.NamedArg;
 import javafx.scene.Node;
 import javafx.scene.chart.*;
 
-import java.util.Date;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class BalanceChart extends LineChart<Number, Number> {
+    //Used until the chart has been laid out, after which one point is charted per pixel of width
+    private static final int DEFAULT_MAX_POINTS = 1000;
+    private static final int MIN_MAX_POINTS = 100;
+
     private XYChart.Series<Number, Number> balanceSeries;
 
     private TransactionEntry selectedEntry;
 
+    //The confirmed transaction entries and their balances as last charted
+    private List<TransactionEntry> chartedEntries = new ArrayList<>();
+    private long[] chartedBalances = new long[0];
+    private int renderedMaxPoints;
+    private boolean downsampled;
+
     public BalanceChart(@NamedArg("xAxis") Axis<Number> xAxis, @NamedArg("yAxis") Axis<Number> yAxis) {
         super(xAxis, yAxis);
     }
@@ -31,49 +40,162 @@ public class BalanceChart extends LineChart<Number, Number> {
 
         BitcoinUnit unit = Config.get().getBitcoinUnit();
         setBitcoinUnit(walletTransactionsEntry.getWallet(), unit);
+
+        widthProperty().addListener((observable, oldValue, newValue) -> {
+            int maxPoints = getMaxPoints();
+            if(maxPoints != renderedMaxPoints && (downsampled || chartedEntries.size() * 2 > maxPoints)) {
+                render(0);
+            }
+        });
     }
 
     public void update(WalletTransactionsEntry walletTransactionsEntry) {
         setVisible(!walletTransactionsEntry.getChildren().isEmpty());
-        balanceSeries.getData().clear();
 
-        List<Data<Number, Number>> balanceDataList = walletTransactionsEntry.getChildren().stream()
+        List<TransactionEntry> entries = walletTransactionsEntry.getChildren().stream()
                 .map(entry -> (TransactionEntry)entry)
                 .filter(txEntry -> txEntry.getBlockTransaction().getHeight() > 0)
-                .map(txEntry -> new XYChart.Data<>((Number)txEntry.getBlockTransaction().getDate().getTime(), (Number)txEntry.getBalance(), txEntry))
                 .collect(Collectors.toList());
 
-        int size = balanceDataList.size() * 2;
-        for(int i = 0; i < size; i+= 2) {
-            Data<Number, Number> data = balanceDataList.get(i);
-
-            if(i + 1 < balanceDataList.size()) {
-                Data<Number, Number> nextData = balanceDataList.get(i + 1);
-                Data<Number, Number> interstitialData = new Data<>(nextData.getXValue(), data.getYValue(), null);
-                balanceDataList.add(i + 1, interstitialData);
-            } else {
-                Date now = new Date();
-                Data<Number, Number> interstitialData = new Data<>(now.getTime(), data.getYValue(), null);
-                balanceDataList.add(interstitialData);
+        //Balances are updated in place, so are compared against the balances as charted
+        int firstChanged = 0;
+        while(firstChanged < entries.size() && firstChanged < chartedEntries.size() && entries.get(firstChanged) == chartedEntries.get(firstChanged)
+                && entries.get(firstChanged).getBalance() == chartedBalances[firstChanged]) {
+            firstChanged++;
+        }
+
+        if(firstChanged == entries.size() && firstChanged == chartedEntries.size() && renderedMaxPoints != 0) {
+            //The final interstitial point is charted at the current time, so is still moved forward when no entries have changed
+            List<Data<Number, Number>> balanceDataList = balanceSeries.getData();
+            if(!balanceDataList.isEmpty()) {
+                long now = new Date().getTime();
+                balanceDataList.get(balanceDataList.size() - 1).setXValue(now);
+                setDateAxisFormatter(balanceDataList.get(0).getXValue().longValue(), now);
             }
+            return;
         }
 
-        if(!balanceDataList.isEmpty()) {
-            long min = balanceDataList.stream().map(data -> data.getXValue().longValue()).min(Long::compare).get();
-            long max = balanceDataList.stream().map(data -> data.getXValue().longValue()).max(Long::compare).get();
+        chartedEntries = entries;
+        chartedBalances = entries.stream().mapToLong(TransactionEntry::getBalance).toArray();
+        render(firstChanged);
+    }
 
-            DateAxisFormatter dateAxisFormatter = new DateAxisFormatter(max - min);
-            NumberAxis xAxis = (NumberAxis)getXAxis();
-            xAxis.setTickLabelFormatter(dateAxisFormatter);
+    /**
+     * Charts the balance after each confirmed transaction as a step line, replacing the points from the first changed entry onwards.
+     * If there are more points than the chart width allows, the whole line is downsampled with Largest-Triangle-Three-Buckets.
+     */
+    private void render(int firstChanged) {
+        int maxPoints = getMaxPoints();
+        int pointCount = chartedEntries.size() * 2;
+        boolean downsample = pointCount > maxPoints;
+
+        long now = new Date().getTime();
+        long[] xValues = new long[pointCount];
+        long[] yValues = new long[pointCount];
+        for(int i = 0; i < chartedEntries.size(); i++) {
+            xValues[i * 2] = chartedEntries.get(i).getBlockTransaction().getDate().getTime();
+            yValues[i * 2] = chartedBalances[i];
+            xValues[i * 2 + 1] = (i + 1 < chartedEntries.size() ? chartedEntries.get(i + 1).getBlockTransaction().getDate().getTime() : now);
+            yValues[i * 2 + 1] = chartedBalances[i];
         }
 
-        balanceSeries.getData().addAll(balanceDataList);
+        if(downsample || downsampled) {
+            int[] indexes = downsample ? getDownsampledIndexes(xValues, yValues, maxPoints) : IntStream.range(0, pointCount).toArray();
+            List<Data<Number, Number>> balanceDataList = new ArrayList<>(indexes.length);
+            for(int index : indexes) {
+                balanceDataList.add(createData(xValues, yValues, index));
+            }
+            balanceSeries.getData().setAll(balanceDataList);
+        } else {
+            //The interstitial point before the first changed entry takes its date from that entry
+            int from = Math.min(Math.max(0, firstChanged * 2 - 1), balanceSeries.getData().size());
+            List<Data<Number, Number>> balanceDataList = new ArrayList<>(pointCount - from);
+            for(int index = from; index < pointCount; index++) {
+                balanceDataList.add(createData(xValues, yValues, index));
+            }
+            balanceSeries.getData().remove(from, balanceSeries.getData().size());
+            balanceSeries.getData().addAll(balanceDataList);
+        }
+
+        downsampled = downsample;
+        renderedMaxPoints = maxPoints;
+
+        if(pointCount > 0) {
+            setDateAxisFormatter(Arrays.stream(xValues).min().getAsLong(), Arrays.stream(xValues).max().getAsLong());
+        }
 
         if(selectedEntry != null) {
             select(selectedEntry);
         }
     }
 
+    private void setDateAxisFormatter(long min, long max) {
+        DateAxisFormatter dateAxisFormatter = new DateAxisFormatter(max - min);
+        NumberAxis xAxis = (NumberAxis)getXAxis();
+        xAxis.setTickLabelFormatter(dateAxisFormatter);
+    }
+
+    private Data<Number, Number> createData(long[] xValues, long[] yValues, int index) {
+        //Transaction points carry their entry for selection, interstitial points do not
+        TransactionEntry txEntry = (index % 2 == 0 ? chartedEntries.get(index / 2) : null);
+        return new Data<>(xValues[index], yValues[index], txEntry);
+    }
+
+    private int getMaxPoints() {
+        int width = (int)getWidth();
+        return width > 0 ? Math.max(MIN_MAX_POINTS, width) : DEFAULT_MAX_POINTS;
+    }
+
+    /**
+     * Selects the indexes of the points to chart with Largest-Triangle-Three-Buckets, always keeping the first and last points.
+     * Each bucket contributes the point forming the largest triangle with the previously selected point and the average of the next bucket.
+     */
+    private static int[] getDownsampledIndexes(long[] xValues, long[] yValues, int threshold) {
+        int length = xValues.length;
+        if(threshold >= length || threshold < 3) {
+            return IntStream.range(0, length).toArray();
+        }
+
+        int[] indexes = new int[threshold];
+        double bucketSize = (double)(length - 2) / (threshold - 2);
+        int selected = 0;
+        indexes[0] = 0;
+
+        for(int bucket = 0; bucket < threshold - 2; bucket++) {
+            int nextStart = (int)Math.floor((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int)Math.floor((bucket + 2) * bucketSize) + 1, length);
+            double averageX = 0;
+            double averageY = 0;
+            for(int i = nextStart; i < nextEnd; i++) {
+                averageX += xValues[i];
+                averageY += yValues[i];
+            }
+            int nextLength = Math.max(1, nextEnd - nextStart);
+            averageX /= nextLength;
+            averageY /= nextLength;
+
+            int start = (int)Math.floor(bucket * bucketSize) + 1;
+            int end = (int)Math.floor((bucket + 1) * bucketSize) + 1;
+            double selectedX = xValues[selected];
+            double selectedY = yValues[selected];
+            double maxArea = -1;
+            int maxIndex = start;
+            for(int i = start; i < end; i++) {
+                double area = Math.abs((selectedX - averageX) * (yValues[i] - selectedY) - (selectedX - xValues[i]) * (averageY - selectedY));
+                if(area > maxArea) {
+                    maxArea = area;
+                    maxIndex = i;
+                }
+            }
+
+            indexes[bucket + 1] = maxIndex;
+            selected = maxIndex;
+        }
+
+        indexes[threshold - 1] = length - 1;
+        return indexes;
+    }
+
     public void select(TransactionEntry transactionEntry) {
         Set<Node> selectedSymbols = lookupAll(".chart-line-symbol.selected");
         for(Node selectedSymbol : selectedSymbols) {
@@ -165,13 +165,13 @@ public class EntryCell extends TreeTableCell<Entry, Entry> {
 
     private static void increaseFee(TransactionEntry transactionEntry) {
         BlockTransaction blockTransaction = transactionEntry.getBlockTransaction();
-        Map<BlockTransactionHashIndex, WalletNode> walletTxos = transactionEntry.getWallet().getWalletTxos();
+        TxoIndex txoIndex = TxoIndex.get(transactionEntry.getWallet());
         List<BlockTransactionHashIndex> utxos = transactionEntry.getChildren().stream()
                 .filter(e -> e instanceof HashIndexEntry)
                 .map(e -> (HashIndexEntry)e)
                 .filter(e -> e.getType().equals(HashIndexEntry.Type.INPUT) && e.isSpendable())
                 .map(e -> blockTransaction.getTransaction().getInputs().get((int)e.getHashIndex().getIndex()))
-                .map(txInput -> walletTxos.keySet().stream().filter(txo -> txo.getHash().equals(txInput.getOutpoint().getHash()) && txo.getIndex() == txInput.getOutpoint().getIndex()).findFirst().get())
+                .map(txInput -> txoIndex.getWalletTxo(txInput.getOutpoint().getHash(), txInput.getOutpoint().getIndex()))
                 .collect(Collectors.toList());
 
         List<TransactionOutput> ourOutputs = transactionEntry.getChildren().stream()
@@ -1,7 +1,7 @@
 package com.sparrowwallet.sparrow.control;
 
 import com.sparrowwallet.sparrow.glyphfont.FontAwesome5;
-import com.sparrowwallet.sparrow.net.MempoolRateSize;
+import com.sparrowwallet.sparrow.net.MempoolHistogram;
 import com.sparrowwallet.sparrow.wallet.SendController;
 import javafx.application.Platform;
 import javafx.beans.NamedArg;
@@ -20,10 +20,7 @@ import org.controlsfx.glyphfont.Glyph;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class MempoolSizeFeeRatesChart extends StackedAreaChart<String, Number> {
     private static final DateFormat dateFormatter = new SimpleDateFormat("HH:mm");
@@ -49,14 +46,14 @@ public class MempoolSizeFeeRatesChart extends StackedAreaChart<String, Number> {
         });
     }
 
-    public void update(Map<Date, Set<MempoolRateSize>> mempoolRateSizes) {
+    public void update(MempoolHistogram mempoolHistogram) {
         getData().clear();
         if(tooltip.isShowing()) {
             tooltip.hide();
         }
 
-        Map<Date, Set<MempoolRateSize>> periodRateSizes = getPeriodRateSizes(mempoolRateSizes);
-        Map<Date, String> categories = getCategories(periodRateSizes);
+        List<MempoolHistogram.Bucket> periodBuckets = mempoolHistogram.getPeriodBuckets();
+        Map<Date, String> categories = getCategories(periodBuckets);
 
         CategoryAxis categoryAxis = (CategoryAxis)getXAxis();
         categoryAxis.setTickMarkVisible(false);
@@ -90,30 +87,20 @@ public class MempoolSizeFeeRatesChart extends StackedAreaChart<String, Number> {
             }
         });
 
-        long previousFeeRate = 0;
-        for(Long feeRate : SendController.FEE_RATES_RANGE) {
+        for(int band = 0; band < SendController.FEE_RATES_RANGE.size(); band++) {
             XYChart.Series<String, Number> series = new XYChart.Series<>();
-            series.setName(feeRate + "+ vB");
+            series.setName(SendController.FEE_RATES_RANGE.get(band) + "+ vB");
             long seriesTotalVSize = 0;
 
-            for(Date date : periodRateSizes.keySet()) {
-                Set<MempoolRateSize> rateSizes = periodRateSizes.get(date);
-                long totalVSize = 0;
-                for(MempoolRateSize rateSize : rateSizes) {
-                    if(rateSize.getFee() > previousFeeRate && rateSize.getFee() <= feeRate) {
-                        totalVSize += rateSize.getVSize();
-                    }
-                }
-
-                series.getData().add(new XYChart.Data<>(categories.get(date), totalVSize));
+            for(MempoolHistogram.Bucket bucket : periodBuckets) {
+                long totalVSize = bucket.getVSize(band);
+                series.getData().add(new XYChart.Data<>(categories.get(bucket.getDate()), totalVSize));
                 seriesTotalVSize += totalVSize;
             }
 
             if(seriesTotalVSize > 0) {
                 getData().add(series);
             }
-
-            previousFeeRate = feeRate;
         }
 
         if(categories.keySet().iterator().hasNext()) {
@@ -127,26 +114,12 @@ public class MempoolSizeFeeRatesChart extends StackedAreaChart<String, Number> {
         }
     }
 
-    private Map<Date, Set<MempoolRateSize>> getPeriodRateSizes(Map<Date, Set<MempoolRateSize>> mempoolRateSizes) {
-        if(mempoolRateSizes.size() == 1) {
-            return mempoolRateSizes;
-        }
-
-        LocalDateTime period = LocalDateTime.now().minusHours(MAX_PERIOD_HOURS);
-        return mempoolRateSizes.entrySet().stream().filter(entry -> {
-            LocalDateTime dateTime = entry.getKey().toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
-            return dateTime.isAfter(period);
-        }).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
-                (u, v) -> { throw new IllegalStateException("Duplicate dates"); },
-                TreeMap::new));
-    }
-
-    private Map<Date, String> getCategories(Map<Date, Set<MempoolRateSize>> mempoolHistogram) {
+    private Map<Date, String> getCategories(List<MempoolHistogram.Bucket> buckets) {
         Map<Date, String> categories = new LinkedHashMap<>();
 
         String invisible = "" + '\ufeff';
-        for(Iterator<Date> iter = mempoolHistogram.keySet().iterator(); iter.hasNext(); ) {
-            Date date = iter.next();
+        for(Iterator<MempoolHistogram.Bucket> iter = buckets.iterator(); iter.hasNext(); ) {
+            Date date = iter.next().getDate();
             String label = dateFormatter.format(date);
             if(!categories.isEmpty() && iter.hasNext()) {
                 label = invisible;
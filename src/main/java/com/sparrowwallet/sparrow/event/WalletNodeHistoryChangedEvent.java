@@ -1,11 +1,8 @@
 package com.sparrowwallet.sparrow.event;
 
-import com.sparrowwallet.drongo.KeyPurpose;
 import com.sparrowwallet.drongo.wallet.Wallet;
 import com.sparrowwallet.drongo.wallet.WalletNode;
-import com.sparrowwallet.sparrow.net.ElectrumServer;
-
-import java.util.List;
+import com.sparrowwallet.sparrow.net.ScriptHashIndex;
 
 /**
  * Used to notify that a wallet node (identified by it's script hash) has been updated on the blockchain.
@@ -19,26 +16,7 @@ public class WalletNodeHistoryChangedEvent {
     }
 
     public WalletNode getWalletNode(Wallet wallet) {
-        List<KeyPurpose> keyPurposes = List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE);
-        for(KeyPurpose keyPurpose : keyPurposes) {
-            WalletNode changedNode = getWalletNode(wallet, keyPurpose);
-            if(changedNode != null) {
-                return changedNode;
-            }
-        }
-
-        return null;
-    }
-
-    private WalletNode getWalletNode(Wallet wallet, KeyPurpose keyPurpose) {
-        WalletNode purposeNode  = wallet.getNode(keyPurpose);
-        for(WalletNode addressNode : purposeNode.getChildren()) {
-            if(ElectrumServer.getScriptHash(wallet, addressNode).equals(scriptHash)) {
-                return addressNode;
-            }
-        }
-
-        return null;
+        return ScriptHashIndex.get(wallet).getWalletNode(wallet, scriptHash);
     }
 
     public String getScriptHash() {
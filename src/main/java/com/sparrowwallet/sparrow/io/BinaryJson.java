@@ -0,0 +1,284 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.google.gson.*;
+import com.sparrowwallet.drongo.Utils;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Compact binary encoding of a JSON tree, used as an alternative to the Gson text format for encrypted wallets.
+ * Lowercase hex strings (transactions, hashes and keys) are stored as raw bytes, integers as zigzag varints and collection sizes as varints.
+ * Short strings and hex values are interned, so repeated hashes such as the txids referenced by each TXO are written once and then referred to by index.
+ * The encoding is lossless, so the decoded tree is read by the same Gson deserializers as the text format.
+ */
+public class BinaryJson {
+    public static final byte[] MAGIC = new byte[] { 0x00, 'S', 'P', 'B' };
+    public static final int VERSION = 1;
+
+    private static final int MAX_INTERNED_LENGTH = 64;
+    private static final Pattern HEX_PATTERN = Pattern.compile("([0-9a-f]{2})+");
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_TRUE = 1;
+    private static final int TAG_FALSE = 2;
+    private static final int TAG_INTEGER = 3;
+    private static final int TAG_NUMBER = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_STRING_REF = 6;
+    private static final int TAG_HEX = 7;
+    private static final int TAG_HEX_REF = 8;
+    private static final int TAG_ARRAY = 9;
+    private static final int TAG_OBJECT = 10;
+
+    private BinaryJson() {
+        //Static methods only
+    }
+
+    public static boolean isBinaryJson(InputStream inputStream) throws IOException {
+        inputStream.mark(MAGIC.length);
+        byte[] magic = inputStream.readNBytes(MAGIC.length);
+        inputStream.reset();
+
+        return Arrays.equals(MAGIC, magic);
+    }
+
+    public static void write(JsonElement jsonElement, OutputStream outputStream) throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(outputStream);
+        dataOut.write(MAGIC);
+        dataOut.write(VERSION);
+        new Writer(dataOut).write(jsonElement);
+        dataOut.flush();
+    }
+
+    public static JsonElement read(InputStream inputStream) throws IOException {
+        DataInputStream dataIn = new DataInputStream(inputStream);
+        byte[] magic = new byte[MAGIC.length];
+        dataIn.readFully(magic);
+        if(!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Not a binary wallet - invalid magic");
+        }
+
+        int version = dataIn.readUnsignedByte();
+        if(version != VERSION) {
+            throw new IOException("Unsupported binary wallet version " + version);
+        }
+
+        return new Reader(dataIn).read();
+    }
+
+    private static class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<String, Integer> hexes = new HashMap<>();
+
+        public Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void write(JsonElement jsonElement) throws IOException {
+            if(jsonElement == null || jsonElement.isJsonNull()) {
+                out.write(TAG_NULL);
+            } else if(jsonElement.isJsonObject()) {
+                Set<Map.Entry<String, JsonElement>> entries = jsonElement.getAsJsonObject().entrySet();
+                out.write(TAG_OBJECT);
+                writeVarInt(entries.size());
+                for(Map.Entry<String, JsonElement> entry : entries) {
+                    writeText(entry.getKey());
+                    write(entry.getValue());
+                }
+            } else if(jsonElement.isJsonArray()) {
+                JsonArray jsonArray = jsonElement.getAsJsonArray();
+                out.write(TAG_ARRAY);
+                writeVarInt(jsonArray.size());
+                for(JsonElement element : jsonArray) {
+                    write(element);
+                }
+            } else {
+                writePrimitive(jsonElement.getAsJsonPrimitive());
+            }
+        }
+
+        private void writePrimitive(JsonPrimitive primitive) throws IOException {
+            if(primitive.isBoolean()) {
+                out.write(primitive.getAsBoolean() ? TAG_TRUE : TAG_FALSE);
+            } else if(primitive.isNumber()) {
+                BigDecimal number = new BigDecimal(primitive.getAsNumber().toString());
+                try {
+                    long value = number.longValueExact();
+                    out.write(TAG_INTEGER);
+                    writeVarLong((value << 1) ^ (value >> 63));
+                } catch(ArithmeticException e) {
+                    out.write(TAG_NUMBER);
+                    writeBytes(number.toString().getBytes(StandardCharsets.UTF_8));
+                }
+            } else {
+                writeText(primitive.getAsString());
+            }
+        }
+
+        private void writeText(String value) throws IOException {
+            if(HEX_PATTERN.matcher(value).matches()) {
+                writeHex(value);
+            } else {
+                writeString(value);
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            Integer index = strings.get(value);
+            if(index != null) {
+                out.write(TAG_STRING_REF);
+                writeVarInt(index);
+            } else {
+                out.write(TAG_STRING);
+                writeBytes(value.getBytes(StandardCharsets.UTF_8));
+                if(value.length() <= MAX_INTERNED_LENGTH) {
+                    strings.put(value, strings.size());
+                }
+            }
+        }
+
+        private void writeHex(String value) throws IOException {
+            Integer index = hexes.get(value);
+            if(index != null) {
+                out.write(TAG_HEX_REF);
+                writeVarInt(index);
+            } else {
+                out.write(TAG_HEX);
+                writeBytes(Utils.hexToBytes(value));
+                if(value.length() <= MAX_INTERNED_LENGTH) {
+                    hexes.put(value, hexes.size());
+                }
+            }
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            writeVarLong(value);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while((value & ~0x7FL) != 0) {
+                out.write((int)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int)value);
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private final List<String> hexes = new ArrayList<>();
+
+        public Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        public JsonElement read() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch(tag) {
+                case TAG_NULL:
+                    return JsonNull.INSTANCE;
+                case TAG_TRUE:
+                    return new JsonPrimitive(true);
+                case TAG_FALSE:
+                    return new JsonPrimitive(false);
+                case TAG_INTEGER:
+                    long zigzag = readVarLong();
+                    return new JsonPrimitive((zigzag >>> 1) ^ -(zigzag & 1));
+                case TAG_NUMBER:
+                    return new JsonPrimitive(new BigDecimal(new String(readBytes(), StandardCharsets.UTF_8)));
+                case TAG_STRING:
+                case TAG_STRING_REF:
+                case TAG_HEX:
+                case TAG_HEX_REF:
+                    return new JsonPrimitive(readText(tag));
+                case TAG_ARRAY:
+                    int arraySize = readVarInt();
+                    JsonArray jsonArray = new JsonArray(arraySize);
+                    for(int i = 0; i < arraySize; i++) {
+                        jsonArray.add(read());
+                    }
+                    return jsonArray;
+                case TAG_OBJECT:
+                    int objectSize = readVarInt();
+                    JsonObject jsonObject = new JsonObject();
+                    for(int i = 0; i < objectSize; i++) {
+                        String key = readText(in.readUnsignedByte());
+                        jsonObject.add(key, read());
+                    }
+                    return jsonObject;
+                default:
+                    throw new IOException("Invalid binary wallet tag " + tag);
+            }
+        }
+
+        private String readText(int tag) throws IOException {
+            switch(tag) {
+                case TAG_STRING_REF:
+                    return getReference(strings, readVarInt());
+                case TAG_HEX_REF:
+                    return getReference(hexes, readVarInt());
+                case TAG_STRING:
+                    return intern(strings, new String(readBytes(), StandardCharsets.UTF_8));
+                case TAG_HEX:
+                    return intern(hexes, Utils.bytesToHex(readBytes()));
+                default:
+                    throw new IOException("Expected string but found tag " + tag);
+            }
+        }
+
+        private String intern(List<String> values, String value) {
+            if(value.length() <= MAX_INTERNED_LENGTH) {
+                values.add(value);
+            }
+
+            return value;
+        }
+
+        private String getReference(List<String> values, int index) throws IOException {
+            if(index < 0 || index >= values.size()) {
+                throw new IOException("Invalid binary wallet reference " + index);
+            }
+
+            return values.get(index);
+        }
+
+        private byte[] readBytes() throws IOException {
+            byte[] bytes = new byte[readVarInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private int readVarInt() throws IOException {
+            long value = readVarLong();
+            if(value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Invalid binary wallet length " + value);
+            }
+
+            return (int)value;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for(int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long)(b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IOException("Invalid binary wallet varint");
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.sparrowwallet.sparrow.io;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.*;
 import com.sparrowwallet.drongo.BitcoinUnit;
 import com.sparrowwallet.sparrow.Mode;
@@ -11,13 +12,24 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.lang.reflect.Type;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Currency;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class Config {
     private static final Logger log = LoggerFactory.getLogger(Config.class);
 
     public static final String CONFIG_FILENAME = "config";
+    private static final long FLUSH_DELAY_MILLIS = 250;
+
+    //Setters are often called in quick succession (for example when preferences are changed), so writes are coalesced and made on a background thread
+    private static final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ConfigFlushThread-%d").build());
 
     private Mode mode;
     private BitcoinUnit bitcoinUnit;
@@ -51,8 +63,16 @@ public class Config {
     private File electrumServerCert;
     private boolean useProxy;
     private String proxyServer;
+    private Integer serverPipelineSize;
+    private Integer serverBatchSize;
+    private Integer serverBatchBytes;
+    private boolean persistTransactionCache = false;
+    private boolean persistMempoolHistogram = true;
+    private boolean binaryWalletFormat = false;
+
+    private transient ScheduledFuture<?> scheduledFlush;
 
-    private static Config INSTANCE;
+    private static volatile Config INSTANCE;
 
     private static Gson getGson() {
         GsonBuilder gsonBuilder = new GsonBuilder();
@@ -90,12 +110,19 @@ public class Config {
         return new Config();
     }
 
-    public static synchronized Config get() {
-        if(INSTANCE == null) {
-            INSTANCE = load();
+    public static Config get() {
+        //Only synchronized on first use, as the config is read from many threads
+        Config config = INSTANCE;
+        if(config == null) {
+            synchronized(Config.class) {
+                if(INSTANCE == null) {
+                    INSTANCE = load();
+                }
+                config = INSTANCE;
+            }
         }
 
-        return INSTANCE;
+        return config;
     }
 
     public Mode getMode() {
@@ -423,16 +450,101 @@ public class Config {
         flush();
     }
 
+    public Integer getServerPipelineSize() {
+        return serverPipelineSize;
+    }
+
+    public void setServerPipelineSize(Integer serverPipelineSize) {
+        this.serverPipelineSize = serverPipelineSize;
+        flush();
+    }
+
+    public Integer getServerBatchSize() {
+        return serverBatchSize;
+    }
+
+    public void setServerBatchSize(Integer serverBatchSize) {
+        this.serverBatchSize = serverBatchSize;
+        flush();
+    }
+
+    public Integer getServerBatchBytes() {
+        return serverBatchBytes;
+    }
+
+    public void setServerBatchBytes(Integer serverBatchBytes) {
+        this.serverBatchBytes = serverBatchBytes;
+        flush();
+    }
+
+    public boolean isPersistTransactionCache() {
+        return persistTransactionCache;
+    }
+
+    public void setPersistTransactionCache(boolean persistTransactionCache) {
+        this.persistTransactionCache = persistTransactionCache;
+        flush();
+    }
+
+    public boolean isPersistMempoolHistogram() {
+        return persistMempoolHistogram;
+    }
+
+    public void setPersistMempoolHistogram(boolean persistMempoolHistogram) {
+        this.persistMempoolHistogram = persistMempoolHistogram;
+        flush();
+    }
+
+    public boolean isBinaryWalletFormat() {
+        return binaryWalletFormat;
+    }
+
+    public void setBinaryWalletFormat(boolean binaryWalletFormat) {
+        this.binaryWalletFormat = binaryWalletFormat;
+        flush();
+    }
+
     private synchronized void flush() {
+        if(scheduledFlush == null) {
+            scheduledFlush = flushExecutor.schedule(() -> {
+                synchronized(Config.this) {
+                    scheduledFlush = null;
+                    write();
+                }
+            }, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the config immediately rather than waiting for a scheduled write, for use on shutdown
+     */
+    public synchronized void flushNow() {
+        if(scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        write();
+    }
+
+    private void write() {
         Gson gson = getGson();
         try {
             File configFile = getConfigFile();
-            Writer writer = new FileWriter(configFile);
+            File tempFile = new File(configFile.getParentFile(), CONFIG_FILENAME + ".tmp");
+            Writer writer = new FileWriter(tempFile);
             gson.toJson(this, writer);
             writer.flush();
             writer.close();
+
+            //Replace the config file in a single step so it is never left partially written
+            try {
+                Files.move(tempFile.toPath(), configFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), configFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch (IOException e) {
-            //Ignore
+            log.error("Error writing " + CONFIG_FILENAME, e);
         }
     }
 
@@ -0,0 +1,176 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.crypto.ECIESKeyCrypter;
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.crypto.EncryptedData;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static com.sparrowwallet.sparrow.io.ECIESChunkedOutputStream.*;
+
+/**
+ * Decrypts a stream written by ECIESChunkedOutputStream one frame at a time. Each frame is authenticated before any of its content is returned.
+ */
+public class ECIESChunkedInputStream extends FilterInputStream {
+    private static final int MAX_ENCRYPTED_CONTENT_KEY_LENGTH = 1024;
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private final ECKey decryptionKey;
+    private final byte[] encryptionMagic;
+
+    private DataInputStream dataIn;
+    private SecretKey contentKey;
+    private int frameSize;
+    private long frameIndex;
+    private byte[] frame;
+    private int framePosition;
+    private boolean finalFrameRead;
+
+    public ECIESChunkedInputStream(InputStream in, ECKey decryptionKey, byte[] encryptionMagic) {
+        super(in);
+
+        if(in == null || decryptionKey == null || encryptionMagic == null) {
+            throw new NullPointerException();
+        }
+
+        this.decryptionKey = decryptionKey;
+        this.encryptionMagic = encryptionMagic;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!ensureFrame()) {
+            return -1;
+        }
+
+        return frame[framePosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if(len == 0) {
+            return 0;
+        }
+
+        if(!ensureFrame()) {
+            return -1;
+        }
+
+        int copied = Math.min(len, frame.length - framePosition);
+        System.arraycopy(frame, framePosition, b, off, copied);
+        framePosition += copied;
+        return copied;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while(skipped < n && ensureFrame()) {
+            int frameSkipped = (int)Math.min(n - skipped, frame.length - framePosition);
+            framePosition += frameSkipped;
+            skipped += frameSkipped;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return frame == null ? 0 : frame.length - framePosition;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        //Not supported
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("Mark not supported");
+    }
+
+    private synchronized boolean ensureFrame() throws IOException {
+        while(frame == null || framePosition == frame.length) {
+            if(finalFrameRead) {
+                return false;
+            }
+
+            readFrame();
+        }
+
+        return true;
+    }
+
+    private void readFrame() throws IOException {
+        if(contentKey == null) {
+            readContentKey();
+        }
+
+        try {
+            boolean finalFrame = dataIn.readBoolean();
+            int length = dataIn.readInt();
+            if(length < TAG_LENGTH || length > frameSize + TAG_LENGTH) {
+                throw new IOException("Invalid frame length of " + length);
+            }
+
+            byte[] ciphertext = new byte[length];
+            dataIn.readFully(ciphertext);
+
+            Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, contentKey, new GCMParameterSpec(TAG_LENGTH * 8, getNonce(frameIndex)));
+            cipher.updateAAD(getAssociatedData(finalFrame));
+            frame = cipher.doFinal(ciphertext);
+            framePosition = 0;
+            finalFrameRead = finalFrame;
+            frameIndex++;
+        } catch(EOFException e) {
+            throw new IOException("Encrypted stream is truncated", e);
+        } catch(AEADBadTagException e) {
+            throw new IOException("Encrypted frame " + frameIndex + " failed authentication", e);
+        } catch(GeneralSecurityException e) {
+            throw new IOException("Error decrypting frame " + frameIndex, e);
+        }
+    }
+
+    private void readContentKey() throws IOException {
+        dataIn = new DataInputStream(in);
+
+        int encryptedContentKeyLength = dataIn.readInt();
+        if(encryptedContentKeyLength <= 0 || encryptedContentKeyLength > MAX_ENCRYPTED_CONTENT_KEY_LENGTH) {
+            throw new IOException("Invalid encrypted content key length of " + encryptedContentKeyLength);
+        }
+
+        byte[] encryptedContentKey = new byte[encryptedContentKeyLength];
+        dataIn.readFully(encryptedContentKey);
+
+        frameSize = dataIn.readInt();
+        if(frameSize <= 0 || frameSize > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame size of " + frameSize);
+        }
+
+        ECIESKeyCrypter keyCrypter = new ECIESKeyCrypter();
+        byte[] contentKeyBytes = keyCrypter.decrypt(new EncryptedData(encryptionMagic, encryptedContentKey, null, null), decryptionKey);
+        if(contentKeyBytes.length != CONTENT_KEY_LENGTH) {
+            throw new IOException("Invalid content key length of " + contentKeyBytes.length);
+        }
+
+        contentKey = new SecretKeySpec(contentKeyBytes, "AES");
+        Arrays.fill(contentKeyBytes, (byte)0);
+    }
+}
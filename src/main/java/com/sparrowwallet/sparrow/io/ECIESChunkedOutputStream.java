@@ -0,0 +1,139 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.sparrowwallet.drongo.crypto.ECIESKeyCrypter;
+import com.sparrowwallet.drongo.crypto.ECKey;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Encrypts a stream in fixed size frames so that memory use does not depend on the length of the stream.
+ * A random content key is encrypted to the encryption key with ECIES, and each frame is then encrypted and authenticated with AES-GCM under the content key.
+ * The frame index is used as the nonce and the last frame is flagged in the associated data, so reordered, removed or truncated frames are detected by ECIESChunkedInputStream.
+ *
+ * The stream consists of the length of the encrypted content key, the encrypted content key and the frame size (as 4 byte big endian integers where applicable),
+ * followed by frames each consisting of a final frame flag byte, the length of the ciphertext and the ciphertext with its authentication tag.
+ */
+public class ECIESChunkedOutputStream extends FilterOutputStream {
+    public static final int DEFAULT_FRAME_SIZE = 64 * 1024;
+    static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+    static final int CONTENT_KEY_LENGTH = 32;
+    static final int NONCE_LENGTH = 12;
+    static final int TAG_LENGTH = 16;
+
+    private final SecretKey contentKey;
+    private final byte[] frame;
+    private int frameLength;
+    private long frameIndex;
+    private boolean closed;
+
+    public ECIESChunkedOutputStream(OutputStream out, ECKey encryptionKey, byte[] encryptionMagic) throws IOException {
+        this(out, encryptionKey, encryptionMagic, DEFAULT_FRAME_SIZE);
+    }
+
+    public ECIESChunkedOutputStream(OutputStream out, ECKey encryptionKey, byte[] encryptionMagic, int frameSize) throws IOException {
+        super(out);
+
+        if(out == null || encryptionKey == null || encryptionMagic == null) {
+            throw new NullPointerException();
+        }
+
+        if(frameSize <= 0) {
+            throw new IllegalArgumentException("Invalid frame size of " + frameSize);
+        }
+
+        byte[] contentKeyBytes = new byte[CONTENT_KEY_LENGTH];
+        new SecureRandom().nextBytes(contentKeyBytes);
+        ECIESKeyCrypter keyCrypter = new ECIESKeyCrypter();
+        byte[] encryptedContentKey = keyCrypter.encrypt(contentKeyBytes, encryptionMagic, encryptionKey).getEncryptedBytes();
+        this.contentKey = new SecretKeySpec(contentKeyBytes, "AES");
+        Arrays.fill(contentKeyBytes, (byte)0);
+
+        this.frame = new byte[frameSize];
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(encryptedContentKey.length);
+        dataOut.write(encryptedContentKey);
+        dataOut.writeInt(frameSize);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        frame[frameLength++] = (byte)b;
+        if(frameLength == frame.length) {
+            writeFrame(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if(off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while(len > 0) {
+            int copied = Math.min(len, frame.length - frameLength);
+            System.arraycopy(b, off, frame, frameLength, copied);
+            frameLength += copied;
+            off += copied;
+            len -= copied;
+
+            if(frameLength == frame.length) {
+                writeFrame(false);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(!closed) {
+            //Always end with a final frame (which may be empty) so that truncation at a frame boundary can be detected
+            writeFrame(true);
+            closed = true;
+            out.flush();
+            out.close();
+        }
+    }
+
+    private void writeFrame(boolean finalFrame) throws IOException {
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, contentKey, new GCMParameterSpec(TAG_LENGTH * 8, getNonce(frameIndex)));
+            cipher.updateAAD(getAssociatedData(finalFrame));
+            byte[] ciphertext = cipher.doFinal(frame, 0, frameLength);
+
+            DataOutputStream dataOut = new DataOutputStream(out);
+            dataOut.writeBoolean(finalFrame);
+            dataOut.writeInt(ciphertext.length);
+            dataOut.write(ciphertext);
+        } catch(GeneralSecurityException e) {
+            throw new IOException("Error encrypting frame " + frameIndex, e);
+        }
+
+        frameIndex++;
+        frameLength = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if(closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    static byte[] getNonce(long frameIndex) {
+        return ByteBuffer.allocate(NONCE_LENGTH).putLong(NONCE_LENGTH - Long.BYTES, frameIndex).array();
+    }
+
+    static byte[] getAssociatedData(boolean finalFrame) {
+        return new byte[] { (byte)(finalFrame ? 1 : 0) };
+    }
+}
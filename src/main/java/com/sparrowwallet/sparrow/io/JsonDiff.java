@@ -0,0 +1,242 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calculates and applies the differences between two JSON trees as a list of operations, used to journal wallet changes.
+ * Each operation is an object with an op of set, remove or splice and a path of object keys and array indexes from the root.
+ * Arrays that only differ in a contiguous range (such as when a node or TXO is added) are spliced rather than rewritten.
+ * The earlier tree is described by a Digest of hashes rather than held in full, so that only the hashes of a saved wallet need to be kept in memory.
+ */
+public class JsonDiff {
+    private static final String OP = "op";
+    private static final String PATH = "path";
+    private static final String VALUE = "value";
+    private static final String START = "start";
+    private static final String DELETE = "delete";
+    private static final String ITEMS = "items";
+
+    private static final String OP_SET = "set";
+    private static final String OP_REMOVE = "remove";
+    private static final String OP_SPLICE = "splice";
+
+    //Deep enough to separate the wallet's transactions and address nodes, below which changed elements are written in full
+    private static final int MAX_DIGEST_DEPTH = 4;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private JsonDiff() {
+        //Static methods only
+    }
+
+    public static Digest digest(JsonObject root) {
+        return digest(root, 0);
+    }
+
+    private static Digest digest(JsonElement element, int depth) {
+        if(depth < MAX_DIGEST_DEPTH && element.isJsonObject()) {
+            Map<String, Digest> members = new LinkedHashMap<>();
+            Hasher hasher = HASH_FUNCTION.newHasher().putByte((byte)'{');
+            for(Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                Digest member = digest(entry.getValue(), depth + 1);
+                members.put(entry.getKey(), member);
+                hasher.putInt(entry.getKey().length()).putString(entry.getKey(), StandardCharsets.UTF_8).putBytes(member.hash.asBytes());
+            }
+
+            return new Digest(hasher.hash(), members, null);
+        }
+
+        if(depth < MAX_DIGEST_DEPTH && element.isJsonArray()) {
+            List<Digest> elements = new ArrayList<>(element.getAsJsonArray().size());
+            Hasher hasher = HASH_FUNCTION.newHasher().putByte((byte)'[');
+            for(JsonElement child : element.getAsJsonArray()) {
+                Digest digest = digest(child, depth + 1);
+                elements.add(digest);
+                hasher.putBytes(digest.hash.asBytes());
+            }
+
+            return new Digest(hasher.hash(), null, elements);
+        }
+
+        return new Digest(HASH_FUNCTION.hashString(element.toString(), StandardCharsets.UTF_8), null, null);
+    }
+
+    /**
+     * Returns the operations that transform the tree described by the from digest into the provided tree, which is described by the to digest
+     */
+    public static JsonArray diff(Digest from, Digest to, JsonObject root) {
+        JsonArray operations = new JsonArray();
+        diff(from, to, root, new JsonArray(), operations);
+        return operations;
+    }
+
+    private static void diff(Digest from, Digest to, JsonElement toElement, JsonArray path, JsonArray operations) {
+        if(from.hash.equals(to.hash)) {
+            return;
+        }
+
+        if(from.members != null && to.members != null) {
+            diffObjects(from, to, toElement.getAsJsonObject(), path, operations);
+        } else if(from.elements != null && to.elements != null) {
+            diffArrays(from, to, toElement.getAsJsonArray(), path, operations);
+        } else {
+            operations.add(createOperation(OP_SET, path, VALUE, toElement));
+        }
+    }
+
+    private static void diffObjects(Digest from, Digest to, JsonObject toObject, JsonArray path, JsonArray operations) {
+        for(Map.Entry<String, Digest> toEntry : to.members.entrySet()) {
+            Digest fromMember = from.members.get(toEntry.getKey());
+            JsonArray childPath = getChildPath(path, new JsonPrimitive(toEntry.getKey()));
+            if(fromMember == null) {
+                operations.add(createOperation(OP_SET, childPath, VALUE, toObject.get(toEntry.getKey())));
+            } else {
+                diff(fromMember, toEntry.getValue(), toObject.get(toEntry.getKey()), childPath, operations);
+            }
+        }
+
+        for(String fromKey : from.members.keySet()) {
+            if(!to.members.containsKey(fromKey)) {
+                operations.add(createOperation(OP_REMOVE, getChildPath(path, new JsonPrimitive(fromKey)), null, null));
+            }
+        }
+    }
+
+    private static void diffArrays(Digest from, Digest to, JsonArray toArray, JsonArray path, JsonArray operations) {
+        List<Digest> fromElements = from.elements;
+        List<Digest> toElements = to.elements;
+        int minSize = Math.min(fromElements.size(), toElements.size());
+        int prefix = 0;
+        while(prefix < minSize && fromElements.get(prefix).hash.equals(toElements.get(prefix).hash)) {
+            prefix++;
+        }
+
+        int suffix = 0;
+        while(suffix < minSize - prefix && fromElements.get(fromElements.size() - 1 - suffix).hash.equals(toElements.get(toElements.size() - 1 - suffix).hash)) {
+            suffix++;
+        }
+
+        int fromChanged = fromElements.size() - prefix - suffix;
+        int toChanged = toElements.size() - prefix - suffix;
+        if(fromChanged == toChanged) {
+            for(int i = prefix; i < prefix + toChanged; i++) {
+                diff(fromElements.get(i), toElements.get(i), toArray.get(i), getChildPath(path, new JsonPrimitive(i)), operations);
+            }
+        } else {
+            JsonArray items = new JsonArray(toChanged);
+            for(int i = prefix; i < prefix + toChanged; i++) {
+                items.add(toArray.get(i));
+            }
+
+            JsonObject operation = createOperation(OP_SPLICE, path, ITEMS, items);
+            operation.addProperty(START, prefix);
+            operation.addProperty(DELETE, fromChanged);
+            operations.add(operation);
+        }
+    }
+
+    /**
+     * Applies operations created by diff to the provided tree, which is modified in place
+     */
+    public static void apply(JsonObject root, JsonArray operations) {
+        for(JsonElement element : operations) {
+            JsonObject operation = element.getAsJsonObject();
+            String op = operation.get(OP).getAsString();
+            JsonArray path = operation.getAsJsonArray(PATH);
+            if(path.size() == 0) {
+                throw new IllegalArgumentException("Cannot apply " + op + " to the root element");
+            }
+
+            JsonElement parent = root;
+            for(int i = 0; i < path.size() - 1; i++) {
+                parent = getChild(parent, path.get(i));
+            }
+            JsonPrimitive last = path.get(path.size() - 1).getAsJsonPrimitive();
+
+            if(OP_SET.equals(op)) {
+                setChild(parent, last, operation.get(VALUE));
+            } else if(OP_REMOVE.equals(op)) {
+                parent.getAsJsonObject().remove(last.getAsString());
+            } else if(OP_SPLICE.equals(op)) {
+                JsonArray from = getChild(parent, last).getAsJsonArray();
+                int start = operation.get(START).getAsInt();
+                int delete = operation.get(DELETE).getAsInt();
+
+                JsonArray spliced = new JsonArray();
+                for(int i = 0; i < start; i++) {
+                    spliced.add(from.get(i));
+                }
+                spliced.addAll(operation.getAsJsonArray(ITEMS));
+                for(int i = start + delete; i < from.size(); i++) {
+                    spliced.add(from.get(i));
+                }
+
+                setChild(parent, last, spliced);
+            } else {
+                throw new IllegalArgumentException("Unknown operation " + op);
+            }
+        }
+    }
+
+    private static JsonElement getChild(JsonElement parent, JsonElement segment) {
+        JsonElement child = parent.isJsonArray() ? parent.getAsJsonArray().get(segment.getAsInt()) : parent.getAsJsonObject().get(segment.getAsString());
+        if(child == null) {
+            throw new IllegalArgumentException("No element at path segment " + segment);
+        }
+
+        return child;
+    }
+
+    private static void setChild(JsonElement parent, JsonPrimitive segment, JsonElement value) {
+        if(parent.isJsonArray()) {
+            parent.getAsJsonArray().set(segment.getAsInt(), value);
+        } else {
+            parent.getAsJsonObject().add(segment.getAsString(), value);
+        }
+    }
+
+    private static JsonArray getChildPath(JsonArray path, JsonPrimitive segment) {
+        JsonArray childPath = new JsonArray(path.size() + 1);
+        childPath.addAll(path);
+        childPath.add(segment);
+        return childPath;
+    }
+
+    private static JsonObject createOperation(String op, JsonArray path, String valueName, JsonElement value) {
+        JsonObject operation = new JsonObject();
+        operation.addProperty(OP, op);
+        operation.add(PATH, path);
+        if(valueName != null) {
+            operation.add(valueName, value);
+        }
+
+        return operation;
+    }
+
+    /**
+     * Hashes of a JSON tree, with the hashes of the members or elements of objects and arrays down to a fixed depth
+     */
+    public static final class Digest {
+        private final HashCode hash;
+        private final Map<String, Digest> members;
+        private final List<Digest> elements;
+
+        private Digest(HashCode hash, Map<String, Digest> members, List<Digest> elements) {
+            this.hash = hash;
+            this.members = members;
+            this.elements = elements;
+        }
+    }
+}
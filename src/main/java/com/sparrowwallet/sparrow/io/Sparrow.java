@@ -26,6 +26,7 @@ public class Sparrow implements WalletExport {
     public void exportWallet(Wallet wallet, OutputStream outputStream) throws ExportException {
         try {
             Storage storage = AppServices.get().getOpenWallets().get(wallet);
+            storage.compactJournal(wallet);
             Files.copy(storage.getWalletFile().toPath(), outputStream);
             outputStream.flush();
             outputStream.close();
@@ -2,6 +2,7 @@ package com.sparrowwallet.sparrow.io;
 
 import com.google.common.io.Files;
 import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
 import com.sparrowwallet.drongo.ExtendedKey;
 import com.sparrowwallet.drongo.Network;
 import com.sparrowwallet.drongo.SecureString;
@@ -13,6 +14,7 @@ import com.sparrowwallet.drongo.wallet.Keystore;
 import com.sparrowwallet.drongo.wallet.Wallet;
 import com.sparrowwallet.drongo.wallet.WalletNode;
 import com.sparrowwallet.sparrow.MainApp;
+import com.sparrowwallet.sparrow.net.ScriptHashIndex;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import org.controlsfx.tools.Platform;
@@ -22,7 +24,11 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.SecureRandom;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
@@ -47,14 +53,34 @@ public class Storage {
     public static final String WALLETS_DIR = "wallets";
     public static final String WALLETS_BACKUP_DIR = "backup";
     public static final String CERTS_DIR = "certs";
+    public static final String HEADERS_FILENAME = "headers";
+    public static final String TRANSACTION_CACHE_DIR = "txcache";
+    public static final String MEMPOOL_HISTOGRAM_FILENAME = "mempool";
     public static final String HEADER_MAGIC_1 = "SPRW1";
+    public static final String HEADER_MAGIC_2 = "SPRW2";
     private static final int BINARY_HEADER_LENGTH = 28;
+    private static final String SCRIPT_HASH_STATUSES = "scriptHashStatuses";
+    private static final String SNAPSHOT_ID = "snapshotId";
+    private static final String JOURNAL_EXTENSION = "journal";
+    private static final long MIN_COMPACTION_LENGTH = 64 * 1024;
+
+    //Used by the keystore and node serializers, which are called once per keystore and node, to avoid recreating Gson for each
+    private static final Gson COMPONENT_GSON = getGson(false);
     public static final String TEMP_BACKUP_EXTENSION = "tmp";
 
     private File walletFile;
     private final Gson gson;
     private AsymmetricKeyDeriver keyDeriver;
     private ECKey encryptionPubKey;
+    private boolean binaryFormat;
+
+    //Hashes of the wallet as last written to the wallet file and journal, against which the changes to journal are calculated
+    private JsonDiff.Digest savedWalletDigest;
+    private String snapshotId;
+    private ECKey snapshotEncryptionPubKey;
+    private boolean snapshotBinaryFormat;
+    private long snapshotLength;
+    private long journalLength;
 
     public Storage(File walletFile) {
         this.walletFile = walletFile;
@@ -109,10 +135,14 @@ public class Storage {
 
     public Wallet loadWallet(File jsonFile) throws IOException {
         Reader reader = new FileReader(jsonFile);
-        Wallet wallet = gson.fromJson(reader, Wallet.class);
+        JsonObject jsonObject = JsonParser.parseReader(reader).getAsJsonObject();
         reader.close();
 
-        return wallet;
+        if(jsonFile.equals(walletFile)) {
+            loadJournal(jsonObject, null, null, false);
+        }
+
+        return readWallet(jsonObject);
     }
 
     public WalletBackupAndKey loadWallet(CharSequence password) throws IOException, StorageException {
@@ -132,13 +162,29 @@ public class Storage {
     }
 
     public WalletAndKey loadWallet(File encryptedFile, CharSequence password) throws IOException, StorageException {
-        InputStream fileStream = new FileInputStream(encryptedFile);
+        InputStream fileStream = new BufferedInputStream(new FileInputStream(encryptedFile));
+        String headerMagic = getHeaderMagic(fileStream);
         ECKey encryptionKey = getEncryptionKey(password, fileStream);
 
-        InputStream inputStream = new InflaterInputStream(new ECIESInputStream(fileStream, encryptionKey, getEncryptionMagic()));
-        Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-        Wallet wallet = gson.fromJson(reader, Wallet.class);
-        reader.close();
+        //Files with the SPRW1 header were encrypted in a single block, and must be read fully into memory to be decrypted
+        InputStream decryptedStream = HEADER_MAGIC_2.equals(headerMagic) ? new ECIESChunkedInputStream(fileStream, encryptionKey, getEncryptionMagic()) : new ECIESInputStream(fileStream, encryptionKey, getEncryptionMagic());
+        InputStream inputStream = new BufferedInputStream(new InflaterInputStream(decryptedStream));
+        boolean binaryJson = BinaryJson.isBinaryJson(inputStream);
+        JsonObject jsonObject;
+        if(binaryJson) {
+            jsonObject = BinaryJson.read(inputStream).getAsJsonObject();
+        } else {
+            Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+            jsonObject = JsonParser.parseReader(reader).getAsJsonObject();
+        }
+        inputStream.close();
+
+        if(encryptedFile.equals(walletFile)) {
+            binaryFormat |= binaryJson;
+            loadJournal(jsonObject, encryptionKey, ECKey.fromPublicOnly(encryptionKey), binaryJson);
+        }
+
+        Wallet wallet = readWallet(jsonObject);
 
         Key key = new Key(encryptionKey.getPrivKeyBytes(), keyDeriver.getSalt(), EncryptionType.Deriver.ARGON2);
 
@@ -146,59 +192,227 @@ public class Storage {
         return new WalletAndKey(wallet, key);
     }
 
+    /**
+     * Stores the wallet, appending the changes since it was last stored to the journal where possible rather than rewriting the wallet file.
+     * The wallet file is written in full if it has not been written by this instance, if the encryption key or format has changed, or once the journal
+     * has grown beyond half the size of the wallet file.
+     */
     public void storeWallet(Wallet wallet) throws IOException {
-        if(encryptionPubKey != null && !NO_PASSWORD_KEY.equals(encryptionPubKey)) {
-            storeWallet(encryptionPubKey, wallet);
+        storeWallet(getWalletJson(wallet));
+    }
+
+    /**
+     * Stores a wallet previously serialized with getWalletJson, allowing the wallet to be stored on another thread while it continues to be modified
+     */
+    public synchronized void storeWallet(JsonObject walletJson) throws IOException {
+        //Wallets are stored on a background save thread, so the journal is compacted here rather than on a further thread
+        if(canAppendJournal() && journalLength <= Math.max(MIN_COMPACTION_LENGTH, snapshotLength / 2)) {
+            JsonDiff.Digest walletDigest = JsonDiff.digest(walletJson);
+            JsonArray operations = JsonDiff.diff(savedWalletDigest, walletDigest, walletJson);
+            if(operations.size() > 0) {
+                journalLength = WalletJournal.append(getJournalFile(), snapshotId, operations, snapshotEncryptionPubKey, getEncryptionMagic());
+                savedWalletDigest = walletDigest;
+            }
+
             return;
         }
 
-        File parent = walletFile.getParentFile();
-        if(!parent.exists() && !parent.mkdirs()) {
-            throw new IOException("Could not create folder " + parent);
+        storeSnapshot(walletJson);
+    }
+
+    /**
+     * Rewrites the wallet file in full from the provided wallet if the journal holds changes, so that the wallet file alone is a complete copy of the wallet.
+     * The wallet as last stored is not held in memory, so any changes to the wallet that have not yet been stored are also written.
+     * Must be called on the JavaFX thread as the wallet is serialized.
+     */
+    public synchronized void compactJournal(Wallet wallet) throws IOException {
+        if(journalLength > 0) {
+            storeSnapshot(getWalletJson(wallet));
         }
+    }
 
-        if(!walletFile.getName().endsWith(".json")) {
-            File jsonFile = new File(parent, walletFile.getName() + ".json");
-            if(walletFile.exists()) {
-                if(!walletFile.renameTo(jsonFile)) {
-                    throw new IOException("Could not rename " + walletFile.getName() + " to " + jsonFile.getName());
+    private void storeSnapshot(JsonObject walletJson) throws IOException {
+        //A new id ensures that a journal written for a previous snapshot is never applied to this one, even if it cannot be deleted
+        String newSnapshotId = UUID.randomUUID().toString();
+        walletJson.addProperty(SNAPSHOT_ID, newSnapshotId);
+        try {
+            if(isEncrypted(encryptionPubKey)) {
+                writeEncryptedWallet(encryptionPubKey, walletJson);
+            } else {
+                writeJsonWallet(walletJson);
+            }
+        } finally {
+            walletJson.remove(SNAPSHOT_ID);
+        }
+
+        WalletJournal.delete(getJournalFile());
+
+        savedWalletDigest = JsonDiff.digest(walletJson);
+        snapshotId = newSnapshotId;
+        snapshotEncryptionPubKey = isEncrypted(encryptionPubKey) ? encryptionPubKey : null;
+        snapshotBinaryFormat = isEncrypted(encryptionPubKey) && isBinaryFormat();
+        snapshotLength = walletFile.length();
+        journalLength = 0;
+    }
+
+    private boolean canAppendJournal() {
+        if(savedWalletDigest == null || snapshotId == null || !walletFile.exists()) {
+            return false;
+        }
+
+        ECKey currentEncryptionPubKey = isEncrypted(encryptionPubKey) ? encryptionPubKey : null;
+        return Objects.equals(currentEncryptionPubKey, snapshotEncryptionPubKey) &&
+                (currentEncryptionPubKey != null && isBinaryFormat()) == snapshotBinaryFormat &&
+                walletFile.getName().endsWith(".json") == (currentEncryptionPubKey == null);
+    }
+
+    private void loadJournal(JsonObject jsonObject, ECKey decryptionKey, ECKey encryptionPubKey, boolean binaryFormat) throws IOException {
+        JsonElement snapshotIdElement = jsonObject.remove(SNAPSHOT_ID);
+        snapshotId = snapshotIdElement == null ? null : snapshotIdElement.getAsString();
+        snapshotEncryptionPubKey = encryptionPubKey;
+        snapshotBinaryFormat = binaryFormat;
+        snapshotLength = walletFile.length();
+        journalLength = 0;
+
+        if(snapshotId != null) {
+            File journalFile = getJournalFile();
+            List<JsonArray> records = WalletJournal.read(journalFile, snapshotId, decryptionKey, getEncryptionMagic());
+            try {
+                for(JsonArray operations : records) {
+                    JsonDiff.apply(jsonObject, operations);
                 }
+            } catch(RuntimeException e) {
+                throw new IOException("Error applying journal for wallet " + walletFile.getName(), e);
             }
-            walletFile = jsonFile;
+
+            journalLength = journalFile.exists() ? journalFile.length() : 0;
+        }
+
+        savedWalletDigest = JsonDiff.digest(jsonObject);
+    }
+
+    private File getJournalFile() {
+        String name = walletFile.getName();
+        if(name.endsWith(".json")) {
+            name = name.substring(0, name.length() - ".json".length());
         }
 
-        Writer writer = new FileWriter(walletFile);
-        gson.toJson(wallet, writer);
-        writer.close();
+        return new File(walletFile.getParentFile(), "." + name + "." + JOURNAL_EXTENSION);
     }
 
-    private void storeWallet(ECKey encryptionPubKey, Wallet wallet) throws IOException {
+    private static boolean isEncrypted(ECKey encryptionPubKey) {
+        return encryptionPubKey != null && !NO_PASSWORD_KEY.equals(encryptionPubKey);
+    }
+
+    private void writeJsonWallet(JsonObject walletJson) throws IOException {
         File parent = walletFile.getParentFile();
         if(!parent.exists() && !parent.mkdirs()) {
             throw new IOException("Could not create folder " + parent);
         }
 
-        if(walletFile.getName().endsWith(".json")) {
-            File noJsonFile = new File(parent, walletFile.getName().substring(0, walletFile.getName().lastIndexOf('.')));
-            if(walletFile.exists()) {
-                if(!walletFile.renameTo(noJsonFile)) {
-                    throw new IOException("Could not rename " + walletFile.getName() + " to " + noJsonFile.getName());
-                }
+        File jsonFile = walletFile.getName().endsWith(".json") ? walletFile : new File(parent, walletFile.getName() + ".json");
+        File tempFile = createTempWalletFile(jsonFile);
+        try {
+            Writer writer = new FileWriter(tempFile);
+            writeWallet(walletJson, writer);
+            writer.close();
+
+            replaceWalletFile(tempFile, jsonFile);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private void writeEncryptedWallet(ECKey encryptionPubKey, JsonObject walletJson) throws IOException {
+        File parent = walletFile.getParentFile();
+        if(!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create folder " + parent);
+        }
+
+        File noJsonFile = walletFile.getName().endsWith(".json") ? new File(parent, walletFile.getName().substring(0, walletFile.getName().lastIndexOf('.'))) : walletFile;
+        File tempFile = createTempWalletFile(noJsonFile);
+        try {
+            OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+            writeBinaryHeader(outputStream);
+
+            OutputStream encryptedStream = new DeflaterOutputStream(new ECIESChunkedOutputStream(outputStream, encryptionPubKey, getEncryptionMagic()));
+            if(isBinaryFormat()) {
+                BinaryJson.write(walletJson, encryptedStream);
+                encryptedStream.close();
+            } else {
+                OutputStreamWriter writer = new OutputStreamWriter(encryptedStream, StandardCharsets.UTF_8);
+                writeWallet(walletJson, writer);
+                writer.close();
             }
-            walletFile = noJsonFile;
+
+            replaceWalletFile(tempFile, noJsonFile);
+        } finally {
+            tempFile.delete();
         }
+    }
+
+    private static File createTempWalletFile(File targetFile) throws IOException {
+        //Created in the same folder so the wallet file can be replaced with an atomic rename
+        return File.createTempFile("." + targetFile.getName() + "-", "." + TEMP_BACKUP_EXTENSION, targetFile.getParentFile());
+    }
+
+    /**
+     * Replaces the wallet file with a fully written temp file, so that the wallet file is never left partially written.
+     * If the wallet file is being renamed (for example when a password is added or removed), the file with the previous name is removed.
+     */
+    private void replaceWalletFile(File tempFile, File targetFile) throws IOException {
+        try(FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        try {
+            java.nio.file.Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch(AtomicMoveNotSupportedException e) {
+            java.nio.file.Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        if(!targetFile.equals(walletFile)) {
+            if(walletFile.exists() && !walletFile.delete()) {
+                throw new IOException("Could not delete " + walletFile.getName() + " after renaming to " + targetFile.getName());
+            }
+            walletFile = targetFile;
+        }
+    }
+
+    private Wallet readWallet(JsonObject jsonObject) {
+        jsonObject.remove(SNAPSHOT_ID);
+        JsonElement scriptHashStatuses = jsonObject.remove(SCRIPT_HASH_STATUSES);
+        Wallet wallet = gson.fromJson(jsonObject, Wallet.class);
+
+        if(scriptHashStatuses != null && scriptHashStatuses.isJsonObject()) {
+            Type stringStringMap = new TypeToken<Map<String, String>>(){}.getType();
+            ScriptHashIndex.get(wallet).setStatuses(gson.fromJson(scriptHashStatuses, stringStringMap));
+        }
+
+        return wallet;
+    }
+
+    private void writeWallet(JsonObject walletJson, Writer writer) {
+        gson.toJson(walletJson, writer);
+    }
+
+    public JsonObject getWalletJson(Wallet wallet) {
+        JsonObject jsonObject = gson.toJsonTree(wallet).getAsJsonObject();
 
-        OutputStream outputStream = new FileOutputStream(walletFile);
-        writeBinaryHeader(outputStream);
+        //Statuses of script hashes whose history is held in this file, allowing unchanged history to be skipped when reconnecting
+        //Wallet copies that are only serialized, such as for export, have no index and none is created for them
+        ScriptHashIndex scriptHashIndex = ScriptHashIndex.getIfPresent(wallet);
+        Map<String, String> scriptHashStatuses = scriptHashIndex == null ? Collections.emptyMap() : scriptHashIndex.getStatuses();
+        if(!scriptHashStatuses.isEmpty()) {
+            jsonObject.add(SCRIPT_HASH_STATUSES, gson.toJsonTree(scriptHashStatuses));
+        }
 
-        OutputStreamWriter writer = new OutputStreamWriter(new DeflaterOutputStream(new ECIESOutputStream(outputStream, encryptionPubKey, getEncryptionMagic())), StandardCharsets.UTF_8);
-        gson.toJson(wallet, writer);
-        writer.close();
+        return jsonObject;
     }
 
     private void writeBinaryHeader(OutputStream outputStream) throws IOException {
         ByteBuffer buf = ByteBuffer.allocate(21);
-        buf.put(HEADER_MAGIC_1.getBytes(StandardCharsets.UTF_8));
+        buf.put(HEADER_MAGIC_2.getBytes(StandardCharsets.UTF_8));
         buf.put(keyDeriver.getSalt());
 
         byte[] encoded = Base64.getEncoder().encode(buf.array());
@@ -208,19 +422,22 @@ public class Storage {
         outputStream.write(encoded);
     }
 
-    public void backupWallet() throws IOException {
-        backupWallet(null);
+    public void backupWallet(Wallet wallet) throws IOException {
+        backupWallet(wallet, null);
     }
 
-    public void backupTempWallet() {
+    public void backupTempWallet(Wallet wallet) {
         try {
-            backupWallet(TEMP_BACKUP_EXTENSION);
+            backupWallet(wallet, TEMP_BACKUP_EXTENSION);
         } catch(IOException e) {
             log.error("Error creating ." + TEMP_BACKUP_EXTENSION + " backup wallet", e);
         }
     }
 
-    public void backupWallet(String extension) throws IOException {
+    public synchronized void backupWallet(Wallet wallet, String extension) throws IOException {
+        //Backups are copies of the wallet file alone, so any changes held in the journal must be written to it first
+        compactJournal(wallet);
+
         File backupDir = getWalletsBackupDir();
 
         Date backupDate = new Date();
@@ -287,6 +504,18 @@ public class Storage {
         this.encryptionPubKey = encryptionPubKey;
     }
 
+    /**
+     * Encrypted wallets are stored in the binary format if they were loaded from it, or if it has been selected for this wallet or in the config.
+     * Wallets without a password are always stored as JSON.
+     */
+    public boolean isBinaryFormat() {
+        return binaryFormat || Config.get().isBinaryWalletFormat();
+    }
+
+    public void setBinaryFormat(boolean binaryFormat) {
+        this.binaryFormat = binaryFormat;
+    }
+
     public ECKey getEncryptionKey(CharSequence password) throws IOException, StorageException {
         return getEncryptionKey(password, null);
     }
@@ -319,8 +548,8 @@ public class Storage {
                 }
                 try {
                     byte[] decodedHeader = Base64.getDecoder().decode(header);
-                    byte[] magic = Arrays.copyOfRange(decodedHeader, 0, HEADER_MAGIC_1.length());
-                    if(!HEADER_MAGIC_1.equals(new String(magic, StandardCharsets.UTF_8))) {
+                    String magic = new String(Arrays.copyOfRange(decodedHeader, 0, HEADER_MAGIC_1.length()), StandardCharsets.UTF_8);
+                    if(!HEADER_MAGIC_1.equals(magic) && !HEADER_MAGIC_2.equals(magic)) {
                         throw new StorageException("Not a Sparrow wallet - invalid magic");
                     }
                     salt = Arrays.copyOfRange(decodedHeader, HEADER_MAGIC_1.length(), decodedHeader.length);
@@ -340,6 +569,20 @@ public class Storage {
         return keyDeriver;
     }
 
+    private static String getHeaderMagic(InputStream inputStream) throws IOException {
+        inputStream.mark(BINARY_HEADER_LENGTH);
+        byte[] header = new byte[BINARY_HEADER_LENGTH];
+        int read = inputStream.readNBytes(header, 0, BINARY_HEADER_LENGTH);
+        inputStream.reset();
+
+        try {
+            byte[] decodedHeader = Base64.getDecoder().decode(Arrays.copyOf(header, read));
+            return new String(Arrays.copyOfRange(decodedHeader, 0, Math.min(decodedHeader.length, HEADER_MAGIC_1.length())), StandardCharsets.UTF_8);
+        } catch(IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     private static byte[] getEncryptionMagic() {
         return "BIE1".getBytes(StandardCharsets.UTF_8);
     }
@@ -409,6 +652,33 @@ public class Storage {
         }
     }
 
+    public static File getBlockHeadersFile() {
+        File sparrowDir = getSparrowDir();
+        if(!sparrowDir.exists()) {
+            sparrowDir.mkdirs();
+        }
+
+        return new File(sparrowDir, HEADERS_FILENAME);
+    }
+
+    public static File getMempoolHistogramFile() {
+        File sparrowDir = getSparrowDir();
+        if(!sparrowDir.exists()) {
+            sparrowDir.mkdirs();
+        }
+
+        return new File(sparrowDir, MEMPOOL_HISTOGRAM_FILENAME);
+    }
+
+    public static File getTransactionCacheDir() {
+        File transactionCacheDir = new File(getSparrowDir(), TRANSACTION_CACHE_DIR);
+        if(!transactionCacheDir.exists()) {
+            transactionCacheDir.mkdirs();
+        }
+
+        return transactionCacheDir;
+    }
+
     static File getCertsDir() {
         File certsDir = new File(getSparrowDir(), CERTS_DIR);
         if(!certsDir.exists()) {
@@ -526,7 +796,7 @@ public class Storage {
     private static class KeystoreSerializer implements JsonSerializer<Keystore> {
         @Override
         public JsonElement serialize(Keystore keystore, Type typeOfSrc, JsonSerializationContext context) {
-            JsonObject jsonObject = (JsonObject)getGson(false).toJsonTree(keystore);
+            JsonObject jsonObject = (JsonObject)COMPONENT_GSON.toJsonTree(keystore);
             if(keystore.hasSeed()) {
                 jsonObject.remove("extendedPublicKey");
                 jsonObject.getAsJsonObject("keyDerivation").remove("masterFingerprint");
@@ -539,7 +809,7 @@ public class Storage {
     private static class NodeSerializer implements JsonSerializer<WalletNode> {
         @Override
         public JsonElement serialize(WalletNode node, Type typeOfSrc, JsonSerializationContext context) {
-            JsonObject jsonObject = (JsonObject)getGson(false).toJsonTree(node);
+            JsonObject jsonObject = (JsonObject)COMPONENT_GSON.toJsonTree(node);
 
             JsonArray children = jsonObject.getAsJsonArray("children");
             Iterator<JsonElement> iter = children.iterator();
@@ -566,7 +836,7 @@ public class Storage {
     private static class NodeDeserializer implements JsonDeserializer<WalletNode> {
         @Override
         public WalletNode deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-            WalletNode node = getGson(false).fromJson(json, typeOfT);
+            WalletNode node = COMPONENT_GSON.fromJson(json, typeOfT);
             node.parseDerivation();
 
             for(WalletNode childNode : node.getChildren()) {
@@ -615,6 +885,11 @@ public class Storage {
         protected Task<WalletBackupAndKey> createTask() {
             return new Task<>() {
                 protected WalletBackupAndKey call() throws IOException, StorageException {
+                    //Wallets without a password are loaded with a null password
+                    if(password == null) {
+                        return storage.loadWallet();
+                    }
+
                     WalletBackupAndKey walletBackupAndKey = storage.loadWallet(password);
                     password.clear();
                     return walletBackupAndKey;
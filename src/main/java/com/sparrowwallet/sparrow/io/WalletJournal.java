@@ -0,0 +1,131 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.sparrowwallet.drongo.crypto.ECIESKeyCrypter;
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.crypto.EncryptedData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only journal of changes made to a wallet since its file was last written in full.
+ * The journal starts with the id of the snapshot it applies to, so a journal left behind by an earlier snapshot is never applied.
+ * Each record is a list of JsonDiff operations, encrypted to the wallet encryption key with ECIES if the wallet has a password, and prefixed by its length.
+ * A final record that was only partially written (for example if the application was terminated while saving) ends the journal and is ignored.
+ * Any other record that cannot be read is an error, and the journal is left unchanged so that no later records are lost.
+ */
+public class WalletJournal {
+    private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+    private static final byte[] MAGIC = new byte[] { 0x00, 'S', 'P', 'J' };
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    private WalletJournal() {
+        //Static methods only
+    }
+
+    /**
+     * Reads the records of the journal, returning an empty list if the journal does not exist or was written for a different snapshot.
+     * A journal for a different snapshot is deleted, and a partially written final record is truncated, so that later records can be appended.
+     * A complete record that cannot be decrypted or parsed, or an invalid record length, throws an IOException without modifying the journal.
+     */
+    public static List<JsonArray> read(File journalFile, String snapshotId, ECKey decryptionKey, byte[] encryptionMagic) throws IOException {
+        List<JsonArray> records = new ArrayList<>();
+        if(!journalFile.exists()) {
+            return records;
+        }
+
+        long validLength = 0;
+        try(DataInputStream dataIn = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            byte[] magic = new byte[MAGIC.length];
+            dataIn.readFully(magic);
+            if(!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("Invalid journal header in " + journalFile.getName());
+            }
+
+            if(dataIn.readUTF().equals(snapshotId)) {
+                validLength = MAGIC.length + Short.BYTES + snapshotId.getBytes(StandardCharsets.UTF_8).length;
+                while(validLength < journalFile.length()) {
+                    int length = dataIn.readInt();
+                    if(length <= 0 || length > MAX_RECORD_LENGTH) {
+                        throw new IOException("Invalid record length of " + length + " in journal " + journalFile.getName());
+                    }
+
+                    byte[] record = new byte[length];
+                    dataIn.readFully(record);
+                    try {
+                        if(decryptionKey != null) {
+                            ECIESKeyCrypter keyCrypter = new ECIESKeyCrypter();
+                            record = keyCrypter.decrypt(new EncryptedData(encryptionMagic, record, null, null), decryptionKey);
+                        }
+
+                        records.add(JsonParser.parseString(new String(record, StandardCharsets.UTF_8)).getAsJsonArray());
+                    } catch(RuntimeException e) {
+                        throw new IOException("Unreadable record at offset " + validLength + " in journal " + journalFile.getName(), e);
+                    }
+
+                    validLength += Integer.BYTES + length;
+                }
+            } else {
+                log.debug("Ignoring journal " + journalFile.getName() + " written for a previous snapshot");
+            }
+        } catch(EOFException e) {
+            //Records are only ever appended, so a torn write can only leave the final record incomplete
+            log.warn("Ignoring partially written record at the end of journal " + journalFile.getName());
+        }
+
+        if(validLength == 0) {
+            delete(journalFile);
+        } else if(validLength < journalFile.length()) {
+            try(RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+                randomAccessFile.setLength(validLength);
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Appends a record to the journal, creating it for the given snapshot if it does not exist, and syncs it to disk before returning.
+     * Returns the length of the journal after the append.
+     */
+    public static long append(File journalFile, String snapshotId, JsonArray operations, ECKey encryptionPubKey, byte[] encryptionMagic) throws IOException {
+        byte[] record = operations.toString().getBytes(StandardCharsets.UTF_8);
+        if(encryptionPubKey != null) {
+            ECIESKeyCrypter keyCrypter = new ECIESKeyCrypter();
+            record = keyCrypter.encrypt(record, encryptionMagic, encryptionPubKey).getEncryptedBytes();
+        }
+
+        boolean create = !journalFile.exists();
+        ByteArrayOutputStream byteOut = new ByteArrayOutputStream(MAGIC.length + Short.BYTES + snapshotId.length() + Integer.BYTES + record.length);
+        DataOutputStream dataOut = new DataOutputStream(byteOut);
+        if(create) {
+            dataOut.write(MAGIC);
+            dataOut.writeUTF(snapshotId);
+        }
+        dataOut.writeInt(record.length);
+        dataOut.write(record);
+
+        //The journal holds the only copy of these changes until the next compaction, so the record is synced before the save is considered complete.
+        //A torn write can only affect this final record, which is then discarded when the journal is read.
+        try(FileOutputStream fileOut = new FileOutputStream(journalFile, !create)) {
+            fileOut.write(byteOut.toByteArray());
+            fileOut.getFD().sync();
+        }
+
+        return journalFile.length();
+    }
+
+    public static void delete(File journalFile) throws IOException {
+        if(journalFile.exists() && !journalFile.delete()) {
+            throw new IOException("Could not delete " + journalFile.getName());
+        }
+    }
+}
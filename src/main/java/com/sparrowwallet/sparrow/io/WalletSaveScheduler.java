@@ -0,0 +1,137 @@
+package com.sparrowwallet.sparrow.io;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonObject;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import javafx.animation.PauseTransition;
+import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves a wallet in the background, coalescing bursts of changes into a single write.
+ * The wallet is serialized on the JavaFX thread when the save delay expires, so that it is not read while being modified, and is then encrypted and written on a save thread.
+ * All methods other than the metrics getters must be called on the JavaFX thread.
+ */
+public class WalletSaveScheduler {
+    private static final Logger log = LoggerFactory.getLogger(WalletSaveScheduler.class);
+
+    private static final Duration SAVE_DELAY = Duration.millis(500);
+
+    //Saves run on a non-daemon thread to ensure queued saves complete before the application exits
+    private static final ExecutorService saveExecutor = new ThreadPoolExecutor(0, 1, 10L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactoryBuilder().setNameFormat("WalletSaveThread-%d").build());
+    private static final Set<WalletSaveScheduler> scheduledSavers = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicInteger queueDepth = new AtomicInteger();
+    private static final AtomicLong saveCount = new AtomicLong();
+    private static final AtomicLong totalSaveNanos = new AtomicLong();
+    private static final AtomicLong lastSaveNanos = new AtomicLong();
+
+    private final Storage storage;
+    private final AtomicLong generation = new AtomicLong();
+    private PauseTransition saveDelay;
+    private Wallet wallet;
+
+    public WalletSaveScheduler(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Schedules the wallet to be saved once no further saves have been scheduled for the save delay
+     */
+    public void scheduleSave(Wallet wallet) {
+        this.wallet = wallet;
+        if(saveDelay == null) {
+            saveDelay = new PauseTransition(SAVE_DELAY);
+            saveDelay.setOnFinished(event -> submitSave());
+        }
+
+        scheduledSavers.add(this);
+        saveDelay.playFromStart();
+    }
+
+    /**
+     * Cancels any scheduled or queued save that has not yet started, used when the wallet is about to be saved synchronously
+     */
+    public void cancel() {
+        if(saveDelay != null) {
+            saveDelay.stop();
+        }
+
+        scheduledSavers.remove(this);
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Queues any scheduled save immediately rather than waiting for the save delay to expire
+     */
+    public void flush() {
+        if(scheduledSavers.contains(this)) {
+            saveDelay.stop();
+            submitSave();
+        }
+    }
+
+    public static void flushAll() {
+        for(WalletSaveScheduler saver : new ArrayList<>(scheduledSavers)) {
+            saver.flush();
+        }
+    }
+
+    private void submitSave() {
+        scheduledSavers.remove(this);
+
+        JsonObject walletJson = storage.getWalletJson(wallet);
+        long saveGeneration = generation.incrementAndGet();
+        long queuedNanos = System.nanoTime();
+        queueDepth.incrementAndGet();
+
+        saveExecutor.execute(() -> {
+            queueDepth.decrementAndGet();
+            long startNanos = System.nanoTime();
+            //Checked while holding the storage lock so that a later synchronous save cannot be overwritten by this one
+            synchronized(storage) {
+                if(saveGeneration != generation.get()) {
+                    return;
+                }
+
+                try {
+                    storage.storeWallet(walletJson);
+                } catch(IOException e) {
+                    log.error("Background wallet save failed", e);
+                    return;
+                }
+            }
+
+            long endNanos = System.nanoTime();
+            saveCount.incrementAndGet();
+            totalSaveNanos.addAndGet(endNanos - startNanos);
+            lastSaveNanos.set(endNanos - startNanos);
+            log.debug("Saved " + storage.getWalletFile().getName() + " in " + TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos) + "ms after " + TimeUnit.NANOSECONDS.toMillis(startNanos - queuedNanos) + "ms queued");
+        });
+    }
+
+    public static int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public static long getSaveCount() {
+        return saveCount.get();
+    }
+
+    public static long getLastSaveMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastSaveNanos.get());
+    }
+
+    public static long getAverageSaveMillis() {
+        long count = saveCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalSaveNanos.get() / count);
+    }
+}
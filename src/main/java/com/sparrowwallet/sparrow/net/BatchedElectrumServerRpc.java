@@ -5,6 +5,7 @@ import com.github.arteam.simplejsonrpc.client.Transport;
 import com.github.arteam.simplejsonrpc.client.builder.BatchRequestBuilder;
 import com.github.arteam.simplejsonrpc.client.exception.JsonRpcBatchException;
 import com.github.arteam.simplejsonrpc.client.exception.JsonRpcException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sparrowwallet.drongo.protocol.Sha256Hash;
 import com.sparrowwallet.drongo.wallet.Wallet;
 import com.sparrowwallet.sparrow.EventManager;
@@ -12,18 +13,37 @@ import com.sparrowwallet.sparrow.event.WalletHistoryStatusEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 public class BatchedElectrumServerRpc implements ElectrumServerRpc {
     private static final Logger log = LoggerFactory.getLogger(BatchedElectrumServerRpc.class);
     private static final int MAX_RETRIES = 3;
     private static final int RETRY_DELAY = 0;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 100 * 1024;
+    private static final int MAX_CONCURRENT_BATCHES = 8;
+    private static final int REQUEST_OVERHEAD_BYTES = 50;
+
+    private static final ExecutorService batchExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_BATCHES, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ElectrumServerBatchThread-%d").build());
 
     private final AtomicLong idCounter = new AtomicLong();
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+
+    public BatchedElectrumServerRpc() {
+        this(DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    public BatchedElectrumServerRpc(int maxBatchSize, int maxBatchBytes) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchBytes = Math.max(1, maxBatchBytes);
+    }
 
     @Override
     public void ping(Transport transport) {
@@ -70,148 +90,111 @@ public class BatchedElectrumServerRpc implements ElectrumServerRpc {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Map<String, ScriptHashTx[]> getScriptHashHistory(Transport transport, Wallet wallet, Map<String, String> pathScriptHashes, boolean failOnError) {
         JsonRpcClient client = new JsonRpcClient(transport);
-        BatchRequestBuilder<String, ScriptHashTx[]> batchRequest = client.createBatchRequest().keysType(String.class).returnType(ScriptHashTx[].class);
         EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Loading transactions"));
 
-        for(String path : pathScriptHashes.keySet()) {
-            batchRequest.add(path, "blockchain.scripthash.get_history", pathScriptHashes.get(path));
-        }
-
-        try {
-            return new RetryLogic<Map<String, ScriptHashTx[]>>(MAX_RETRIES, RETRY_DELAY, IllegalStateException.class).getResult(batchRequest::execute);
-        } catch (JsonRpcBatchException e) {
-            if(failOnError) {
-                throw new ElectrumServerRpcException("Failed to retrieve references for paths: " + e.getErrors().keySet(), e);
-            }
-
-            Map<String, ScriptHashTx[]> result = (Map<String, ScriptHashTx[]>)e.getSuccesses();
-            for(Object key : e.getErrors().keySet()) {
-                result.put((String)key, new ScriptHashTx[] {ScriptHashTx.ERROR_TX});
-            }
-
-            return result;
-        } catch(Exception e) {
-            throw new ElectrumServerRpcException("Failed to retrieve references for paths: " + pathScriptHashes.keySet(), e);
-        }
+        BatchResult<String, ScriptHashTx[]> batchResult = executeBatches(client, String.class, ScriptHashTx[].class, "blockchain.scripthash.get_history", pathScriptHashes.keySet(), path -> new Object[] {pathScriptHashes.get(path)}, MAX_RETRIES);
+        return getScriptHashTxes(batchResult, failOnError);
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Map<String, ScriptHashTx[]> getScriptHashMempool(Transport transport, Wallet wallet, Map<String, String> pathScriptHashes, boolean failOnError) {
         JsonRpcClient client = new JsonRpcClient(transport);
-        BatchRequestBuilder<String, ScriptHashTx[]> batchRequest = client.createBatchRequest().keysType(String.class).returnType(ScriptHashTx[].class);
 
-        for(String path : pathScriptHashes.keySet()) {
-            batchRequest.add(path, "blockchain.scripthash.get_mempool", pathScriptHashes.get(path));
+        BatchResult<String, ScriptHashTx[]> batchResult = executeBatches(client, String.class, ScriptHashTx[].class, "blockchain.scripthash.get_mempool", pathScriptHashes.keySet(), path -> new Object[] {pathScriptHashes.get(path)}, MAX_RETRIES);
+        return getScriptHashTxes(batchResult, failOnError);
+    }
+
+    private Map<String, ScriptHashTx[]> getScriptHashTxes(BatchResult<String, ScriptHashTx[]> batchResult, boolean failOnError) {
+        if(batchResult.isFailed()) {
+            throw new ElectrumServerRpcException("Failed to retrieve references for paths: " + batchResult.failures, batchResult.exception);
         }
 
-        try {
-            return new RetryLogic<Map<String, ScriptHashTx[]>>(MAX_RETRIES, RETRY_DELAY, IllegalStateException.class).getResult(batchRequest::execute);
-        } catch(JsonRpcBatchException e) {
+        if(!batchResult.failures.isEmpty()) {
             if(failOnError) {
-                throw new ElectrumServerRpcException("Failed to retrieve references for paths: " + e.getErrors().keySet(), e);
+                throw new ElectrumServerRpcException("Failed to retrieve references for paths: " + batchResult.failures, batchResult.exception);
             }
 
-            Map<String, ScriptHashTx[]> result = (Map<String, ScriptHashTx[]>)e.getSuccesses();
-            for(Object key : e.getErrors().keySet()) {
-                result.put((String)key, new ScriptHashTx[] {ScriptHashTx.ERROR_TX});
+            for(String path : batchResult.failures) {
+                batchResult.successes.put(path, new ScriptHashTx[] {ScriptHashTx.ERROR_TX});
             }
-
-            return result;
-        } catch(Exception e) {
-            throw new ElectrumServerRpcException("Failed to retrieve references for paths: " + pathScriptHashes.keySet(), e);
         }
+
+        return batchResult.successes;
     }
 
     @Override
     public Map<String, String> subscribeScriptHashes(Transport transport, Wallet wallet, Map<String, String> pathScriptHashes) {
         JsonRpcClient client = new JsonRpcClient(transport);
-        BatchRequestBuilder<String, String> batchRequest = client.createBatchRequest().keysType(String.class).returnType(String.class);
         EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Finding transactions"));
 
-        for(String path : pathScriptHashes.keySet()) {
-            batchRequest.add(path, "blockchain.scripthash.subscribe", pathScriptHashes.get(path));
-        }
-
-        try {
-            return new RetryLogic<Map<String, String>>(MAX_RETRIES, RETRY_DELAY, IllegalStateException.class).getResult(batchRequest::execute);
-        } catch(JsonRpcBatchException e) {
+        BatchResult<String, String> batchResult = executeBatches(client, String.class, String.class, "blockchain.scripthash.subscribe", pathScriptHashes.keySet(), path -> new Object[] {pathScriptHashes.get(path)}, MAX_RETRIES);
+        if(!batchResult.failures.isEmpty()) {
             //Even if we have some successes, failure to subscribe for all script hashes will result in outdated wallet view. Don't proceed.
-            throw new ElectrumServerRpcException("Failed to subscribe for updates for paths: " + e.getErrors().keySet(), e);
-        } catch(Exception e) {
-            throw new ElectrumServerRpcException("Failed to subscribe for updates for paths: " + pathScriptHashes.keySet(), e);
+            throw new ElectrumServerRpcException("Failed to subscribe for updates for paths: " + batchResult.failures, batchResult.exception);
         }
+
+        return batchResult.successes;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Map<Integer, String> getBlockHeaders(Transport transport, Wallet wallet, Set<Integer> blockHeights) {
         JsonRpcClient client = new JsonRpcClient(transport);
-        BatchRequestBuilder<Integer, String> batchRequest = client.createBatchRequest().keysType(Integer.class).returnType(String.class);
         EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Retrieving blocks"));
 
-        for(Integer height : blockHeights) {
-            batchRequest.add(height, "blockchain.block.header", height);
+        BatchResult<Integer, String> batchResult = executeBatches(client, Integer.class, String.class, "blockchain.block.header", blockHeights, height -> new Object[] {height}, MAX_RETRIES);
+        if(batchResult.isFailed()) {
+            throw new ElectrumServerRpcException("Failed to block headers for block heights: " + batchResult.failures, batchResult.exception);
         }
 
+        return batchResult.successes;
+    }
+
+    @Override
+    public BlockHeaders getBlockHeaderRange(Transport transport, int startHeight, int count) {
         try {
-            return new RetryLogic<Map<Integer, String>>(MAX_RETRIES, RETRY_DELAY, IllegalStateException.class).getResult(batchRequest::execute);
-        } catch(JsonRpcBatchException e) {
-            return (Map<Integer, String>)e.getSuccesses();
+            JsonRpcClient client = new JsonRpcClient(transport);
+            return new RetryLogic<BlockHeaders>(MAX_RETRIES, RETRY_DELAY, IllegalStateException.class).getResult(() ->
+                    client.createRequest().returnAs(BlockHeaders.class).method("blockchain.block.headers").id(idCounter.incrementAndGet()).params(startHeight, count).execute());
         } catch(Exception e) {
-            throw new ElectrumServerRpcException("Failed to block headers for block heights: " + blockHeights, e);
+            throw new ElectrumServerRpcException("Failed to retrieve block headers from block height: " + startHeight, e);
         }
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Map<String, String> getTransactions(Transport transport, Wallet wallet, Set<String> txids) {
         JsonRpcClient client = new JsonRpcClient(transport);
-        BatchRequestBuilder<String, String> batchRequest = client.createBatchRequest().keysType(String.class).returnType(String.class);
         EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Retrieving transactions"));
 
-        for(String txid : txids) {
-            batchRequest.add(txid, "blockchain.transaction.get", txid);
+        BatchResult<String, String> batchResult = executeBatches(client, String.class, String.class, "blockchain.transaction.get", txids, txid -> new Object[] {txid}, MAX_RETRIES);
+        if(batchResult.isFailed()) {
+            throw new ElectrumServerRpcException("Failed to retrieve transactions for txids: " + batchResult.failures, batchResult.exception);
         }
 
-        try {
-            return new RetryLogic<Map<String, String>>(MAX_RETRIES, RETRY_DELAY, IllegalStateException.class).getResult(batchRequest::execute);
-        } catch(JsonRpcBatchException e) {
-            Map<String, String> result = (Map<String, String>)e.getSuccesses();
-
-            String strErrorTx = Sha256Hash.ZERO_HASH.toString();
-            for(Object hash : e.getErrors().keySet()) {
-                String txhash = (String)hash;
-                result.put(txhash, strErrorTx);
-            }
-
-            return result;
-        } catch(Exception e) {
-            throw new ElectrumServerRpcException("Failed to retrieve transactions for txids: " + txids, e);
+        String strErrorTx = Sha256Hash.ZERO_HASH.toString();
+        for(String txid : batchResult.failures) {
+            batchResult.successes.put(txid, strErrorTx);
         }
+
+        return batchResult.successes;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Map<String, VerboseTransaction> getVerboseTransactions(Transport transport, Set<String> txids, String scriptHash) {
         JsonRpcClient client = new JsonRpcClient(transport);
-        BatchRequestBuilder<String, VerboseTransaction> batchRequest = client.createBatchRequest().keysType(String.class).returnType(VerboseTransaction.class);
-        for(String txid : txids) {
-            batchRequest.add(txid, "blockchain.transaction.get", txid, true);
+
+        //The server may return an error if the transaction has not yet been broadcasted - this is a valid state so only try once
+        BatchResult<String, VerboseTransaction> batchResult = executeBatches(client, String.class, VerboseTransaction.class, "blockchain.transaction.get", txids, txid -> new Object[] {txid, true}, 1);
+        if(batchResult.isFailed()) {
+            throw new ElectrumServerRpcException("Failed to retrieve verbose transactions for txids: " + batchResult.failures, batchResult.exception);
         }
 
-        try {
-            //The server may return an error if the transaction has not yet been broadcasted - this is a valid state so only try once
-            return new RetryLogic<Map<String, VerboseTransaction>>(1, RETRY_DELAY, IllegalStateException.class).getResult(batchRequest::execute);
-        } catch(JsonRpcBatchException e) {
-            log.warn("Some errors retrieving transactions: " + e.getErrors());
-            return (Map<String, VerboseTransaction>)e.getSuccesses();
-        } catch(Exception e) {
-            throw new ElectrumServerRpcException("Failed to retrieve verbose transactions for txids: " + txids, e);
+        if(!batchResult.failures.isEmpty()) {
+            log.warn("Some errors retrieving transactions: " + batchResult.failures);
         }
+
+        return batchResult.successes;
     }
 
     @Override
@@ -272,4 +255,120 @@ public class BatchedElectrumServerRpc implements ElectrumServerRpc {
             throw new ElectrumServerRpcException("Error broadcasting transaction", e);
         }
     }
+
+    /**
+     * Splits the requests into batches bounded by item count and approximate byte size, and sends the batches concurrently.
+     * Each batch is retried independently on transport failure. Errors returned by the server for individual keys are final, as before batching.
+     */
+    private <K, V> BatchResult<K, V> executeBatches(JsonRpcClient client, Class<K> keysType, Class<V> returnType, String method, Collection<K> keys, Function<K, Object[]> params, int maxAttempts) {
+        List<Future<BatchResult<K, V>>> futures = new ArrayList<>();
+        for(List<K> batchKeys : getBatches(keys, method, params)) {
+            futures.add(batchExecutor.submit(() -> executeBatch(client, keysType, returnType, method, batchKeys, params, maxAttempts)));
+        }
+
+        BatchResult<K, V> result = new BatchResult<>();
+        for(Future<BatchResult<K, V>> future : futures) {
+            try {
+                result.add(future.get());
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new ElectrumServerRpcException("Interrupted while waiting for batched requests", e);
+            } catch(ExecutionException e) {
+                futures.forEach(f -> f.cancel(true));
+                throw new ElectrumServerRpcException("Error executing batched request", e.getCause());
+            }
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K, V> BatchResult<K, V> executeBatch(JsonRpcClient client, Class<K> keysType, Class<V> returnType, String method, List<K> keys, Function<K, Object[]> params, int maxAttempts) {
+        BatchResult<K, V> result = new BatchResult<>();
+        Set<K> remaining = new LinkedHashSet<>(keys);
+
+        for(int attempt = 0; attempt < maxAttempts && !remaining.isEmpty(); attempt++) {
+            BatchRequestBuilder<K, V> batchRequest = client.createBatchRequest().keysType(keysType).returnType(returnType);
+            for(K key : remaining) {
+                batchRequest.add(key, method, params.apply(key));
+            }
+
+            try {
+                result.successes.putAll(batchRequest.execute());
+                remaining.clear();
+                result.exception = null;
+            } catch(JsonRpcBatchException e) {
+                //The server returned errors for some keys, which would be returned again if retried
+                Map<K, V> successes = (Map<K, V>)e.getSuccesses();
+                result.successes.putAll(successes);
+                remaining.removeAll(successes.keySet());
+                result.exception = e;
+                break;
+            } catch(IllegalStateException e) {
+                result.exception = e;
+            } catch(Exception e) {
+                result.exception = e;
+                break;
+            }
+        }
+
+        result.failures.addAll(remaining);
+        return result;
+    }
+
+    private <K> List<List<K>> getBatches(Collection<K> keys, String method, Function<K, Object[]> params) {
+        List<List<K>> batches = new ArrayList<>();
+        List<K> batch = new ArrayList<>();
+        int batchRequestBytes = 0;
+
+        for(K key : keys) {
+            int requestBytes = getRequestBytes(key, method, params.apply(key));
+            if(!batch.isEmpty() && (batch.size() >= maxBatchSize || batchRequestBytes + requestBytes > maxBatchBytes)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchRequestBytes = 0;
+            }
+
+            batch.add(key);
+            batchRequestBytes += requestBytes;
+        }
+
+        if(!batch.isEmpty()) {
+            batches.add(batch);
+        }
+
+        return batches;
+    }
+
+    private static int getRequestBytes(Object key, String method, Object[] params) {
+        //Approximates the size of {"jsonrpc":"2.0","id":key,"method":method,"params":[params]}
+        int requestBytes = REQUEST_OVERHEAD_BYTES + key.toString().length() + method.length();
+        for(Object param : params) {
+            requestBytes += param.toString().length() + 3;
+        }
+
+        return requestBytes;
+    }
+
+    private static class BatchResult<K, V> {
+        private final Map<K, V> successes = new LinkedHashMap<>();
+        private final Set<K> failures = new LinkedHashSet<>();
+        private Exception exception;
+
+        /**
+         * True if some keys could not be retrieved for a reason other than an error returned by the server for those keys
+         */
+        public boolean isFailed() {
+            return !failures.isEmpty() && !(exception instanceof JsonRpcBatchException);
+        }
+
+        public void add(BatchResult<K, V> batchResult) {
+            successes.putAll(batchResult.successes);
+            failures.addAll(batchResult.failures);
+            if(batchResult.exception != null && (exception == null || exception instanceof JsonRpcBatchException)) {
+                exception = batchResult.exception;
+            }
+        }
+    }
 }
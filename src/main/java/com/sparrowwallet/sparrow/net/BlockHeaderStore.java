@@ -0,0 +1,246 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.sparrowwallet.drongo.protocol.BlockHeader;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.sparrow.io.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Local store of block headers, held as a memory mapped file of fixed length 80 byte records indexed by height.
+ * Records that have not yet been retrieved are all zeroes. The file is sparse and grows in large increments as higher blocks are stored.
+ */
+public class BlockHeaderStore implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(BlockHeaderStore.class);
+
+    public static final int HEADER_LENGTH = 80;
+    public static final int RANGE_SIZE = 2016;
+    private static final int GROWTH_HEADERS = 50 * RANGE_SIZE;
+    private static final int TIMESTAMP_OFFSET = 68;
+    private static final int PREV_HASH_OFFSET = 4;
+    private static final int HASH_LENGTH = 32;
+    public static final int MAX_REORG_DEPTH = 10;
+
+    private static BlockHeaderStore INSTANCE;
+
+    private final File headersFile;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int tipHeight = -1;
+    private volatile boolean verificationRequired = true;
+
+    private BlockHeaderStore(File headersFile) {
+        this.headersFile = headersFile;
+
+        try {
+            channel = new RandomAccessFile(headersFile, "rw").getChannel();
+            if(channel.size() > 0) {
+                ensureCapacity((int)(channel.size() / HEADER_LENGTH) - 1);
+            }
+        } catch(IOException e) {
+            log.error("Error opening block header store at " + headersFile.getAbsolutePath() + ", headers will not be stored", e);
+            channel = null;
+        }
+    }
+
+    public static synchronized BlockHeaderStore get() {
+        if(INSTANCE == null) {
+            INSTANCE = new BlockHeaderStore(Storage.getBlockHeadersFile());
+        }
+
+        return INSTANCE;
+    }
+
+    /**
+     * Closes the store if it has been opened, forcing stored headers to disk
+     */
+    public static synchronized void shutdown() {
+        if(INSTANCE != null) {
+            try {
+                INSTANCE.close();
+            } catch(IOException e) {
+                log.error("Error closing block header store", e);
+            }
+            INSTANCE = null;
+        }
+    }
+
+    public synchronized BlockHeader getBlockHeader(int height) {
+        byte[] headerBytes = getHeaderBytes(height);
+        return headerBytes == null ? null : new BlockHeader(headerBytes);
+    }
+
+    private byte[] getHeaderBytes(int height) {
+        if(buffer == null || height < 0 || height >= capacity) {
+            return null;
+        }
+
+        int offset = height * HEADER_LENGTH;
+        //A valid header always has a non-zero timestamp
+        if(buffer.getInt(offset + TIMESTAMP_OFFSET) == 0) {
+            return null;
+        }
+
+        byte[] headerBytes = new byte[HEADER_LENGTH];
+        buffer.get(offset, headerBytes);
+        return headerBytes;
+    }
+
+    public synchronized void putHeader(int height, byte[] headerBytes) {
+        if(headerBytes.length != HEADER_LENGTH) {
+            throw new IllegalArgumentException("Invalid block header length of " + headerBytes.length);
+        }
+
+        if(ensureCapacity(height)) {
+            buffer.put(height * HEADER_LENGTH, headerBytes);
+        }
+    }
+
+    /**
+     * Stores a contiguous range of headers as returned by blockchain.block.headers. Headers that do not connect to the previous header in the range are not stored.
+     */
+    public synchronized void putHeaders(int startHeight, byte[] concatenatedHeaders) {
+        byte[] previousHash = null;
+        for(int i = 0; i + HEADER_LENGTH <= concatenatedHeaders.length; i += HEADER_LENGTH) {
+            byte[] headerBytes = Arrays.copyOfRange(concatenatedHeaders, i, i + HEADER_LENGTH);
+            if(previousHash != null && !Arrays.equals(previousHash, getPrevHash(headerBytes))) {
+                log.warn("Block header at height " + (startHeight + i / HEADER_LENGTH) + " does not connect to previous header, discarding remainder of range");
+                return;
+            }
+
+            putHeader(startHeight + i / HEADER_LENGTH, headerBytes);
+            previousHash = getHash(headerBytes);
+        }
+    }
+
+    /**
+     * Stores a new chain tip. If the previous header does not match the stored header at the height below, a reorg has occurred and
+     * the stored headers that may have been replaced are cleared so they are fetched again when next required.
+     */
+    public synchronized void putTip(int height, byte[] headerBytes) {
+        byte[] storedPrevious = getHeaderBytes(height - 1);
+        if(storedPrevious != null && !Arrays.equals(getHash(storedPrevious), getPrevHash(headerBytes))) {
+            int clearFrom = Math.max(0, height - MAX_REORG_DEPTH);
+            for(int reorgHeight = clearFrom; reorgHeight < height; reorgHeight++) {
+                clear(reorgHeight);
+            }
+
+            log.info("Reorg detected at height " + height + ", cleared stored headers from height " + clearFrom);
+            //The reorg may be deeper than the headers cleared here
+            verificationRequired = true;
+        }
+
+        //Headers above a new tip belong to a chain that has been abandoned
+        for(int staleHeight = height + 1; getHeaderBytes(staleHeight) != null; staleHeight++) {
+            clear(staleHeight);
+        }
+
+        putHeader(height, headerBytes);
+        tipHeight = height;
+    }
+
+    public synchronized int getTipHeight() {
+        return tipHeight;
+    }
+
+    /**
+     * Whether the stored headers should be checked against the server with replaceStaleHeaders, which is the case when the store is opened
+     * as a reorg may have occurred while the application was closed, and when a reorg has been detected at a new tip
+     */
+    public boolean isVerificationRequired() {
+        return verificationRequired;
+    }
+
+    public void setVerificationRequired(boolean verificationRequired) {
+        this.verificationRequired = verificationRequired;
+    }
+
+    /**
+     * Compares a contiguous range of headers retrieved from the server with the stored headers, replacing any stored header that differs.
+     * Returns true if a stored header was replaced, in which case the headers below the range may also be stale and should be checked.
+     */
+    public synchronized boolean replaceStaleHeaders(int startHeight, byte[] concatenatedHeaders) {
+        boolean replaced = false;
+        byte[] previousHash = null;
+        for(int i = 0; i + HEADER_LENGTH <= concatenatedHeaders.length; i += HEADER_LENGTH) {
+            int height = startHeight + i / HEADER_LENGTH;
+            byte[] headerBytes = Arrays.copyOfRange(concatenatedHeaders, i, i + HEADER_LENGTH);
+            if(previousHash != null && !Arrays.equals(previousHash, getPrevHash(headerBytes))) {
+                log.warn("Block header at height " + height + " does not connect to previous header, discarding remainder of range");
+                return replaced;
+            }
+
+            byte[] storedBytes = getHeaderBytes(height);
+            if(storedBytes != null && !Arrays.equals(storedBytes, headerBytes)) {
+                putHeader(height, headerBytes);
+                replaced = true;
+            }
+
+            previousHash = getHash(headerBytes);
+        }
+
+        if(replaced) {
+            log.info("Replaced stale stored block headers from height " + startHeight);
+        }
+
+        return replaced;
+    }
+
+    private void clear(int height) {
+        if(buffer != null && height >= 0 && height < capacity) {
+            buffer.put(height * HEADER_LENGTH, new byte[HEADER_LENGTH]);
+        }
+    }
+
+    private boolean ensureCapacity(int height) {
+        if(channel == null || height < 0) {
+            return false;
+        }
+
+        if(height >= capacity) {
+            int newCapacity = (height / GROWTH_HEADERS + 1) * GROWTH_HEADERS;
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long)newCapacity * HEADER_LENGTH);
+                capacity = newCapacity;
+            } catch(IOException e) {
+                log.error("Error extending block header store at " + headersFile.getAbsolutePath(), e);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static byte[] getPrevHash(byte[] headerBytes) {
+        return Arrays.copyOfRange(headerBytes, PREV_HASH_OFFSET, PREV_HASH_OFFSET + HASH_LENGTH);
+    }
+
+    private static byte[] getHash(byte[] headerBytes) {
+        //Header hashes are referenced in serialized headers in the same little endian byte order as the double SHA256 digest
+        return Sha256Hash.hash(Sha256Hash.hash(headerBytes));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(buffer != null) {
+            buffer.force();
+        }
+
+        if(channel != null) {
+            channel.close();
+        }
+
+        buffer = null;
+        channel = null;
+        capacity = 0;
+    }
+}
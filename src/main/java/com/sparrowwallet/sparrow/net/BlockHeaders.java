@@ -0,0 +1,7 @@
+package com.sparrowwallet.sparrow.net;
+
+class BlockHeaders {
+    public int count;
+    public String hex;
+    public int max;
+}
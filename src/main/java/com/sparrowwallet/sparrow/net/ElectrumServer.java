@@ -4,6 +4,7 @@ import com.github.arteam.simplejsonrpc.client.Transport;
 import com.google.common.collect.Iterables;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sparrowwallet.drongo.KeyPurpose;
 import com.sparrowwallet.drongo.Network;
 import com.sparrowwallet.drongo.Utils;
@@ -27,6 +28,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
@@ -38,6 +40,12 @@ public class ElectrumServer {
 
     private static final String[] SUPPORTED_VERSIONS = new String[]{"1.3", "1.4.2"};
 
+    private static final int MIN_BLOCK_HEADER_RANGE_HEIGHTS = 8;
+
+    private static final ForkJoinPool HISTORY_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService historyExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ElectrumServerHistoryThread-%d").build());
+
     public static final BlockTransaction UNFETCHABLE_BLOCK_TRANSACTION = new BlockTransaction(Sha256Hash.ZERO_HASH, 0, null, null, null);
 
     private static Transport transport;
@@ -151,13 +159,22 @@ public class ElectrumServer {
     }
 
     public Map<WalletNode, Set<BlockTransactionHash>> getHistory(Wallet wallet) throws ServerException {
-        Map<WalletNode, Set<BlockTransactionHash>> receiveTransactionMap = new TreeMap<>();
-        getHistory(wallet, KeyPurpose.RECEIVE, receiveTransactionMap);
+        //The receive and change address chains are independent, so scan them concurrently
+        Future<Map<WalletNode, Set<BlockTransactionHash>>> changeFuture = historyExecutor.submit(() -> {
+            Map<WalletNode, Set<BlockTransactionHash>> changeTransactionMap = new TreeMap<>();
+            getHistory(wallet, KeyPurpose.CHANGE, changeTransactionMap);
+            return changeTransactionMap;
+        });
 
-        Map<WalletNode, Set<BlockTransactionHash>> changeTransactionMap = new TreeMap<>();
-        getHistory(wallet, KeyPurpose.CHANGE, changeTransactionMap);
+        Map<WalletNode, Set<BlockTransactionHash>> receiveTransactionMap = new TreeMap<>();
+        try {
+            getHistory(wallet, KeyPurpose.RECEIVE, receiveTransactionMap);
+        } catch(ServerException e) {
+            changeFuture.cancel(true);
+            throw e;
+        }
 
-        receiveTransactionMap.putAll(changeTransactionMap);
+        receiveTransactionMap.putAll(getHistoryResult(changeFuture));
         return receiveTransactionMap;
     }
 
@@ -216,30 +233,63 @@ public class ElectrumServer {
 
     public void getHistory(Wallet wallet, KeyPurpose keyPurpose, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap) throws ServerException {
         WalletNode purposeNode = wallet.getNode(keyPurpose);
-        //Subscribe to all existing address WalletNodes and add them to nodeTransactionMap as keys to empty sets if they have history
-        subscribeWalletNodes(wallet, purposeNode.getChildren(), nodeTransactionMap, 0);
-        //All WalletNode keys in nodeTransactionMap need to have their history fetched (nodes without history will not be keys in the map yet)
-        getReferences(wallet, nodeTransactionMap.keySet(), nodeTransactionMap, 0);
-        //Fetch all referenced transaction to wallet transactions map. We do this now even though it is done again later to get it done before too many script hashes are subscribed
-        getReferencedTransactions(wallet, nodeTransactionMap);
+        List<Future<Map<WalletNode, Set<BlockTransactionHash>>>> referenceFutures = new ArrayList<>();
+        try {
+            //Subscribe to all existing address WalletNodes and add them to nodeTransactionMap as keys to empty sets if they have history
+            subscribeWalletNodes(wallet, purposeNode.getChildren(), nodeTransactionMap, 0);
+            //All WalletNode keys in nodeTransactionMap need to have their history fetched (nodes without history will not be keys in the map yet)
+            //The gap limit depends only on which nodes have history, so the history is fetched in the background while the next window is subscribed
+            referenceFutures.add(getReferencesAsync(wallet, nodeTransactionMap, 0));
+
+            //Because node children are added sequentially in WalletNode.fillToIndex, we can simply look at the number of children to determine the highest filled index
+            int historySize = purposeNode.getChildren().size();
+            //The gap limit size takes the highest used index in the retrieved history and adds the gap limit (plus one to be comparable to the number of children since index is zero based)
+            int gapLimitSize = getGapLimitSize(wallet, nodeTransactionMap);
+            while(historySize < gapLimitSize) {
+                purposeNode.fillToIndex(gapLimitSize - 1);
+                subscribeWalletNodes(wallet, purposeNode.getChildren(), nodeTransactionMap, historySize);
+                referenceFutures.add(getReferencesAsync(wallet, nodeTransactionMap, historySize));
+                historySize = purposeNode.getChildren().size();
+                gapLimitSize = getGapLimitSize(wallet, nodeTransactionMap);
+            }
 
-        //Because node children are added sequentially in WalletNode.fillToIndex, we can simply look at the number of children to determine the highest filled index
-        int historySize = purposeNode.getChildren().size();
-        //The gap limit size takes the highest used index in the retrieved history and adds the gap limit (plus one to be comparable to the number of children since index is zero based)
-        int gapLimitSize = getGapLimitSize(wallet, nodeTransactionMap);
-        while(historySize < gapLimitSize) {
-            purposeNode.fillToIndex(gapLimitSize - 1);
-            subscribeWalletNodes(wallet, purposeNode.getChildren(), nodeTransactionMap, historySize);
-            getReferences(wallet, nodeTransactionMap.keySet(), nodeTransactionMap, historySize);
-            getReferencedTransactions(wallet, nodeTransactionMap);
-            historySize = purposeNode.getChildren().size();
-            gapLimitSize = getGapLimitSize(wallet, nodeTransactionMap);
+            for(Future<Map<WalletNode, Set<BlockTransactionHash>>> referenceFuture : referenceFutures) {
+                nodeTransactionMap.putAll(getHistoryResult(referenceFuture));
+            }
+        } finally {
+            referenceFutures.forEach(future -> future.cancel(true));
         }
 
         //Set the remaining WalletNode keys in nodeTransactionMap to empty sets to indicate no history
         purposeNode.getChildren().stream().filter(node -> !nodeTransactionMap.containsKey(node)).forEach(node -> nodeTransactionMap.put(node, Collections.emptySet()));
     }
 
+    private Future<Map<WalletNode, Set<BlockTransactionHash>>> getReferencesAsync(Wallet wallet, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap, int startIndex) {
+        //Copy the entries for this window so the subscribing thread can continue to add to nodeTransactionMap
+        Map<WalletNode, Set<BlockTransactionHash>> windowTransactionMap = new TreeMap<>();
+        nodeTransactionMap.entrySet().stream().filter(entry -> entry.getKey().getIndex() >= startIndex).forEach(entry -> windowTransactionMap.put(entry.getKey(), entry.getValue()));
+
+        return historyExecutor.submit(() -> {
+            getReferences(wallet, windowTransactionMap.keySet(), windowTransactionMap, startIndex);
+            return windowTransactionMap;
+        });
+    }
+
+    private static <T> T getHistoryResult(Future<T> future) throws ServerException {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted while retrieving history", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof ServerException) {
+                throw (ServerException)e.getCause();
+            }
+
+            throw new ServerException(e.getCause());
+        }
+    }
+
     private int getGapLimitSize(Wallet wallet, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap) {
         int highestIndex = nodeTransactionMap.keySet().stream().map(WalletNode::getIndex).max(Comparator.comparing(Integer::valueOf)).orElse(-1);
         return highestIndex + wallet.getGapLimit() + 1;
@@ -247,10 +297,21 @@ public class ElectrumServer {
 
     public void getReferences(Wallet wallet, Collection<WalletNode> nodes, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap, int startIndex) throws ServerException {
         try {
+            ScriptHashIndex scriptHashIndex = ScriptHashIndex.get(wallet);
             Map<String, String> pathScriptHashes = new LinkedHashMap<>(nodes.size());
+            Map<String, String> scriptHashStatuses = new HashMap<>(nodes.size());
             for(WalletNode node : nodes) {
                 if(node.getIndex() >= startIndex) {
-                    pathScriptHashes.put(node.getDerivationPath(), getScriptHash(wallet, node));
+                    String scriptHash = getScriptHash(wallet, node);
+                    String status = getSubscribedScriptHashStatus(scriptHash);
+                    Set<BlockTransactionHash> existingReferences = nodeTransactionMap.get(node);
+                    if(status != null && status.equals(scriptHashIndex.getStatus(scriptHash)) && existingReferences != null && !existingReferences.isEmpty()) {
+                        //References were restored from the wallet history, which is current for this status
+                        continue;
+                    }
+
+                    pathScriptHashes.put(node.getDerivationPath(), scriptHash);
+                    scriptHashStatuses.put(scriptHash, status);
                 }
             }
 
@@ -261,44 +322,19 @@ public class ElectrumServer {
             //Even if we have some successes, failure to retrieve all references will result in an incomplete wallet history. Don't proceed if that's the case.
             Map<String, ScriptHashTx[]> result = electrumServerRpc.getScriptHashHistory(getTransport(), wallet, pathScriptHashes, true);
 
+            Map<String, WalletNode> pathNodes = getPathNodes(nodes, startIndex);
             for(String path : result.keySet()) {
                 ScriptHashTx[] txes = result.get(path);
 
-                Optional<WalletNode> optionalNode = nodes.stream().filter(n -> n.getDerivationPath().equals(path)).findFirst();
-                if(optionalNode.isPresent()) {
-                    WalletNode node = optionalNode.get();
-
+                WalletNode node = pathNodes.get(path);
+                if(node != null) {
                     //Some servers can return the same tx as multiple ScriptHashTx entries with different heights. Take the highest height only
-                    Set<BlockTransactionHash> references = Arrays.stream(txes).map(ScriptHashTx::getBlockchainTransactionHash)
-                            .collect(TreeSet::new, (set, ref) -> {
-                                Optional<BlockTransactionHash> optExisting = set.stream().filter(prev -> prev.getHash().equals(ref.getHash())).findFirst();
-                                if(optExisting.isPresent()) {
-                                    if(optExisting.get().getHeight() < ref.getHeight()) {
-                                        set.remove(optExisting.get());
-                                        set.add(ref);
-                                    }
-                                } else {
-                                    set.add(ref);
-                                }
-                            }, TreeSet::addAll);
-                    Set<BlockTransactionHash> existingReferences = nodeTransactionMap.get(node);
+                    List<BlockTransactionHash> references = Arrays.stream(txes).map(ScriptHashTx::getBlockchainTransactionHash).collect(Collectors.toList());
+                    nodeTransactionMap.put(node, mergeReferences(nodeTransactionMap.get(node), references));
 
-                    if(existingReferences == null) {
-                        nodeTransactionMap.put(node, references);
-                    } else {
-                        for(BlockTransactionHash reference : references) {
-                            if(!existingReferences.add(reference)) {
-                                Optional<BlockTransactionHash> optionalReference = existingReferences.stream().filter(tr -> tr.getHash().equals(reference.getHash())).findFirst();
-                                if(optionalReference.isPresent()) {
-                                    BlockTransactionHash existingReference = optionalReference.get();
-                                    if(existingReference.getHeight() < reference.getHeight()) {
-                                        existingReferences.remove(existingReference);
-                                        existingReferences.add(reference);
-                                    }
-                                }
-                            }
-                        }
-                    }
+                    //Use the status at the time of the request in case the script hash has since changed
+                    String scriptHash = pathScriptHashes.get(path);
+                    scriptHashIndex.setPendingStatus(scriptHash, scriptHashStatuses.get(scriptHash));
                 }
             }
         } catch (ElectrumServerRpcException e) {
@@ -335,18 +371,27 @@ public class ElectrumServer {
 
             Map<String, String> result = electrumServerRpc.subscribeScriptHashes(getTransport(), wallet, pathScriptHashes);
 
+            ScriptHashIndex scriptHashIndex = ScriptHashIndex.get(wallet);
+            Map<String, WalletNode> pathNodes = getPathNodes(nodes, startIndex);
             for(String path : result.keySet()) {
                 String status = result.get(path);
 
-                Optional<WalletNode> optionalNode = nodes.stream().filter(n -> n.getDerivationPath().equals(path)).findFirst();
-                if(optionalNode.isPresent()) {
-                    WalletNode node = optionalNode.get();
-                    String scriptHash = getScriptHash(wallet, node);
+                WalletNode node = pathNodes.get(path);
+                if(node != null) {
+                    String scriptHash = pathScriptHashes.get(path);
 
                     //Check if there is history for this script hash
                     if(status != null) {
-                        //Set the value for this node to be an empty set to mark it as requiring a get_history RPC call for this wallet
-                        nodeTransactionMap.put(node, new TreeSet<>());
+                        Set<BlockTransactionHash> storedReferences = status.equals(scriptHashIndex.getStatus(scriptHash)) ? getStoredReferences(wallet, node) : null;
+                        if(storedReferences != null) {
+                            //The status has not changed since the wallet history was retrieved, so the stored references can be used without a get_history RPC call
+                            nodeTransactionMap.put(node, storedReferences);
+                        } else {
+                            //Set the value for this node to be an empty set to mark it as requiring a get_history RPC call for this wallet
+                            nodeTransactionMap.put(node, new TreeSet<>());
+                        }
+                    } else {
+                        scriptHashIndex.setPendingStatus(scriptHash, null);
                     }
 
                     updateSubscribedScriptHashStatus(scriptHash, status);
@@ -359,6 +404,64 @@ public class ElectrumServer {
         }
     }
 
+    /**
+     * Returns the nodes at or above the start index by derivation path, so that results keyed by path can be matched to their nodes in constant time
+     */
+    static Map<String, WalletNode> getPathNodes(Collection<WalletNode> nodes, int startIndex) {
+        Map<String, WalletNode> pathNodes = new HashMap<>(nodes.size());
+        for(WalletNode node : nodes) {
+            if(node != null && node.getIndex() >= startIndex) {
+                pathNodes.putIfAbsent(node.getDerivationPath(), node);
+            }
+        }
+
+        return pathNodes;
+    }
+
+    /**
+     * Returns the references for a node held in the wallet history, or null if the wallet does not hold all of the referenced transactions
+     */
+    private static Set<BlockTransactionHash> getStoredReferences(Wallet wallet, WalletNode node) {
+        if(node.getTransactionOutputs().isEmpty()) {
+            return null;
+        }
+
+        List<BlockTransactionHash> references = new ArrayList<>();
+        for(BlockTransactionHashIndex txo : node.getTransactionOutputs()) {
+            references.add(new BlockTransaction(txo.getHash(), txo.getHeight(), null, txo.getFee(), null));
+            if(txo.getSpentBy() != null) {
+                references.add(new BlockTransaction(txo.getSpentBy().getHash(), txo.getSpentBy().getHeight(), null, txo.getSpentBy().getFee(), null));
+            }
+        }
+
+        for(BlockTransactionHash reference : references) {
+            if(!wallet.getTransactions().containsKey(reference.getHash())) {
+                return null;
+            }
+        }
+
+        return mergeReferences(null, references);
+    }
+
+    /**
+     * Merges the references with any existing references by txid, keeping the reference with the highest height where a transaction is referenced more than once
+     */
+    static Set<BlockTransactionHash> mergeReferences(Collection<BlockTransactionHash> existingReferences, Collection<BlockTransactionHash> references) {
+        Map<Sha256Hash, BlockTransactionHash> txidReferences = new HashMap<>();
+        if(existingReferences != null) {
+            addReferences(txidReferences, existingReferences);
+        }
+        addReferences(txidReferences, references);
+
+        return new TreeSet<>(txidReferences.values());
+    }
+
+    private static void addReferences(Map<Sha256Hash, BlockTransactionHash> txidReferences, Collection<BlockTransactionHash> references) {
+        for(BlockTransactionHash reference : references) {
+            txidReferences.merge(reference.getHash(), reference, (existing, added) -> existing.getHeight() < added.getHeight() ? added : existing);
+        }
+    }
+
     public List<Set<BlockTransactionHash>> getOutputTransactionReferences(Transaction transaction, int indexStart, int indexEnd) throws ServerException {
         try {
             Map<String, String> pathScriptHashes = new LinkedHashMap<>();
@@ -441,13 +544,27 @@ public class ElectrumServer {
                 return Collections.emptyMap();
             }
 
+            BlockHeaderStore blockHeaderStore = BlockHeaderStore.get();
+            Map<Integer, BlockHeader> blockHeaderMap = new TreeMap<>();
+            getStoredBlockHeaders(blockHeaderStore, blockHeights, blockHeaderMap);
+            if(blockHeights.isEmpty()) {
+                return blockHeaderMap;
+            }
+
+            //Retrieve whole ranges of headers where many are required, storing them for future use
+            getBlockHeaderRanges(blockHeaderStore, blockHeights);
+            getStoredBlockHeaders(blockHeaderStore, blockHeights, blockHeaderMap);
+            if(blockHeights.isEmpty()) {
+                return blockHeaderMap;
+            }
+
             Map<Integer, String> result = electrumServerRpc.getBlockHeaders(getTransport(), wallet, blockHeights);
 
-            Map<Integer, BlockHeader> blockHeaderMap = new TreeMap<>();
             for(Integer height : result.keySet()) {
                 byte[] blockHeaderBytes = Utils.hexToBytes(result.get(height));
                 BlockHeader blockHeader = new BlockHeader(blockHeaderBytes);
                 blockHeaderMap.put(height, blockHeader);
+                blockHeaderStore.putHeader(height, blockHeaderBytes);
                 blockHeights.remove(height);
             }
 
@@ -463,16 +580,75 @@ public class ElectrumServer {
         }
     }
 
+    private void getStoredBlockHeaders(BlockHeaderStore blockHeaderStore, Set<Integer> blockHeights, Map<Integer, BlockHeader> blockHeaderMap) {
+        for(Iterator<Integer> iter = blockHeights.iterator(); iter.hasNext(); ) {
+            Integer height = iter.next();
+            BlockHeader blockHeader = blockHeaderStore.getBlockHeader(height);
+            if(blockHeader != null) {
+                blockHeaderMap.put(height, blockHeader);
+                iter.remove();
+            }
+        }
+    }
+
+    private void getBlockHeaderRanges(BlockHeaderStore blockHeaderStore, Set<Integer> blockHeights) throws ServerException {
+        Map<Integer, Long> rangeCounts = blockHeights.stream().collect(Collectors.groupingBy(height -> height / BlockHeaderStore.RANGE_SIZE, TreeMap::new, Collectors.counting()));
+        for(Integer range : rangeCounts.keySet()) {
+            if(rangeCounts.get(range) >= MIN_BLOCK_HEADER_RANGE_HEIGHTS) {
+                int startHeight = range * BlockHeaderStore.RANGE_SIZE;
+                try {
+                    BlockHeaders blockHeaders = electrumServerRpc.getBlockHeaderRange(getTransport(), startHeight, BlockHeaderStore.RANGE_SIZE);
+                    if(blockHeaders != null && blockHeaders.hex != null) {
+                        blockHeaderStore.putHeaders(startHeight, Utils.hexToBytes(blockHeaders.hex));
+                    }
+                } catch(ElectrumServerRpcException e) {
+                    log.warn("Could not retrieve block headers from height " + startHeight + ", retrieving individually", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the stored block headers below the tip against the server, replacing headers stored from a chain that has since been reorganised.
+     * This covers reorgs that occurred while the application was closed, and continues to lower heights for as long as stale headers are found.
+     */
+    public void verifyStoredBlockHeaders() {
+        BlockHeaderStore blockHeaderStore = BlockHeaderStore.get();
+        blockHeaderStore.setVerificationRequired(false);
+        for(int endHeight = blockHeaderStore.getTipHeight(); endHeight >= 0; ) {
+            int startHeight = Math.max(0, endHeight - BlockHeaderStore.MAX_REORG_DEPTH + 1);
+            try {
+                BlockHeaders blockHeaders = electrumServerRpc.getBlockHeaderRange(getTransport(), startHeight, endHeight - startHeight + 1);
+                if(blockHeaders == null || blockHeaders.hex == null || !blockHeaderStore.replaceStaleHeaders(startHeight, Utils.hexToBytes(blockHeaders.hex))) {
+                    return;
+                }
+            } catch(ElectrumServerRpcException | ServerException e) {
+                log.warn("Could not verify stored block headers from height " + startHeight, e);
+                blockHeaderStore.setVerificationRequired(true);
+                return;
+            }
+
+            endHeight = startHeight - 1;
+        }
+    }
+
     public Map<Sha256Hash, BlockTransaction> getTransactions(Wallet wallet, Set<BlockTransactionHash> references, Map<Integer, BlockHeader> blockHeaderMap) throws ServerException {
         try {
             Set<BlockTransactionHash> checkReferences = new TreeSet<>(references);
 
+            //Transactions already in the cache or another open wallet do not need to be fetched
+            Map<Sha256Hash, Transaction> transactions = new LinkedHashMap<>();
             Set<String> txids = new LinkedHashSet<>(references.size());
             for(BlockTransactionHash reference : references) {
-                txids.add(reference.getHashAsString());
+                Transaction cachedTransaction = TransactionCache.get().getTransaction(reference.getHash());
+                if(cachedTransaction != null) {
+                    transactions.put(reference.getHash(), cachedTransaction);
+                } else {
+                    txids.add(reference.getHashAsString());
+                }
             }
 
-            Map<String, String> result = electrumServerRpc.getTransactions(getTransport(), wallet, txids);
+            Map<String, String> result = txids.isEmpty() ? Collections.emptyMap() : electrumServerRpc.getTransactions(getTransport(), wallet, txids);
 
             String strErrorTx = Sha256Hash.ZERO_HASH.toString();
             Map<Sha256Hash, BlockTransaction> transactionMap = new HashMap<>();
@@ -487,14 +663,16 @@ public class ElectrumServer {
                 }
 
                 byte[] rawtx = Utils.hexToBytes(strRawTx);
-                Transaction transaction;
 
                 try {
-                    transaction = new Transaction(rawtx);
+                    transactions.put(hash, new Transaction(rawtx));
                 } catch(ProtocolException e) {
                     log.error("Could not parse tx: " + strRawTx);
-                    continue;
                 }
+            }
+
+            for(Sha256Hash hash : transactions.keySet()) {
+                Transaction transaction = transactions.get(hash);
 
                 Optional<BlockTransactionHash> optionalReference = references.stream().filter(reference -> reference.getHash().equals(hash)).findFirst();
                 if(optionalReference.isEmpty()) {
@@ -517,6 +695,7 @@ public class ElectrumServer {
 
                 transactionMap.put(hash, blockchainTransaction);
                 checkReferences.remove(reference);
+                TransactionCache.get().putTransaction(hash, transaction, reference.getHeight() > 0);
             }
 
             if(!checkReferences.isEmpty()) {
@@ -532,18 +711,53 @@ public class ElectrumServer {
     }
 
     public void calculateNodeHistory(Wallet wallet, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap) {
-        for(WalletNode node : nodeTransactionMap.keySet()) {
-            calculateNodeHistory(wallet, nodeTransactionMap, node);
+        //Each node's history depends only on its own references, so nodes can be calculated independently
+        Map<WalletNode, Set<BlockTransactionHashIndex>> nodeTransactionOutputs;
+        try {
+            nodeTransactionOutputs = HISTORY_POOL.submit(() -> nodeTransactionMap.keySet().parallelStream()
+                    .collect(Collectors.toMap(node -> node, node -> getTransactionOutputs(wallet, nodeTransactionMap, node)))).get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while calculating wallet history", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+
+            throw new IllegalStateException("Error calculating wallet history", e.getCause());
+        }
+
+        //Apply the results on the calling thread to avoid concurrently modifying the wallet
+        for(Map.Entry<WalletNode, Set<BlockTransactionHashIndex>> entry : nodeTransactionOutputs.entrySet()) {
+            updateTransactionOutputs(wallet, entry.getKey(), entry.getValue());
         }
     }
 
     public void calculateNodeHistory(Wallet wallet, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap, WalletNode node) {
+        updateTransactionOutputs(wallet, node, getTransactionOutputs(wallet, nodeTransactionMap, node));
+    }
+
+    private void updateTransactionOutputs(Wallet wallet, WalletNode node, Set<BlockTransactionHashIndex> transactionOutputs) {
+        if(!transactionOutputs.equals(node.getTransactionOutputs())) {
+            node.updateTransactionOutputs(transactionOutputs);
+        }
+
+        //The wallet now holds the history for the status at which it was retrieved
+        ScriptHashIndex.get(wallet).commitStatus(getScriptHash(wallet, node));
+    }
+
+    private Set<BlockTransactionHashIndex> getTransactionOutputs(Wallet wallet, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap, WalletNode node) {
         Set<BlockTransactionHashIndex> transactionOutputs = new TreeSet<>();
 
+        //Index the history and received outputs of this node so spends can be matched in constant time
+        Set<BlockTransactionHash> history = nodeTransactionMap.get(node);
+        Map<Sha256Hash, BlockTransactionHash> historyIndex = new HashMap<>(history.size() * 2);
+        Map<Outpoint, BlockTransactionHashIndex> receivedOutpoints = new HashMap<>();
+
         //First check all provided txes that pay to this node
         Script nodeScript = wallet.getOutputScript(node);
-        Set<BlockTransactionHash> history = nodeTransactionMap.get(node);
         for(BlockTransactionHash reference : history) {
+            historyIndex.put(reference.getHash(), reference);
             BlockTransaction blockTransaction = wallet.getTransactions().get(reference.getHash());
             if(blockTransaction == null) {
                 throw new IllegalStateException("Did not retrieve transaction for hash " + reference.getHashAsString());
@@ -557,6 +771,7 @@ public class ElectrumServer {
                 if (output.getScript().equals(nodeScript)) {
                     BlockTransactionHashIndex receivingTXO = new BlockTransactionHashIndex(reference.getHash(), reference.getHeight(), blockTransaction.getDate(), reference.getFee(), output.getIndex(), output.getValue());
                     transactionOutputs.add(receivingTXO);
+                    receivedOutpoints.put(new Outpoint(reference.getHash(), output.getIndex()), receivingTXO);
                 }
             }
         }
@@ -564,66 +779,63 @@ public class ElectrumServer {
         //Then check all provided txes that pay from this node
         for(BlockTransactionHash reference : history) {
             BlockTransaction blockTransaction = wallet.getTransactions().get(reference.getHash());
-            if(blockTransaction == null || blockTransaction.equals(UNFETCHABLE_BLOCK_TRANSACTION)) {
-                throw new IllegalStateException("Could not retrieve transaction for hash " + reference.getHashAsString());
-            }
             Transaction transaction = blockTransaction.getTransaction();
 
             for(int inputIndex = 0; inputIndex < transaction.getInputs().size(); inputIndex++) {
                 TransactionInput input = transaction.getInputs().get(inputIndex);
                 Sha256Hash previousHash = input.getOutpoint().getHash();
-                BlockTransaction previousTransaction = wallet.getTransactions().get(previousHash);
 
-                if(previousTransaction == null) {
-                    //No referenced transaction found, cannot check if spends from wallet
-                    //This is fine so long as all referenced transactions have been returned, in which case this refers to a transaction that does not affect this wallet
-                    continue;
-                } else if(previousTransaction.equals(UNFETCHABLE_BLOCK_TRANSACTION)) {
-                    throw new IllegalStateException("Could not retrieve transaction for hash " + reference.getHashAsString());
-                }
-
-                Optional<BlockTransactionHash> optionalTxHash = history.stream().filter(txHash -> txHash.getHash().equals(previousHash)).findFirst();
-                if(optionalTxHash.isEmpty()) {
+                BlockTransactionHash spentTxHash = historyIndex.get(previousHash);
+                if(spentTxHash == null) {
                     //No previous transaction history found, cannot check if spends from wallet
                     //This is fine so long as all referenced transactions have been returned, in which case this refers to a transaction that does not affect this wallet node
                     continue;
                 }
 
-                BlockTransactionHash spentTxHash = optionalTxHash.get();
+                //Every transaction in the history has been checked above, so the previous transaction is available
+                BlockTransaction previousTransaction = wallet.getTransactions().get(previousHash);
                 TransactionOutput spentOutput = previousTransaction.getTransaction().getOutputs().get((int)input.getOutpoint().getIndex());
                 if(spentOutput.getScript().equals(nodeScript)) {
                     BlockTransactionHashIndex spendingTXI = new BlockTransactionHashIndex(reference.getHash(), reference.getHeight(), blockTransaction.getDate(), reference.getFee(), inputIndex, spentOutput.getValue());
-                    BlockTransactionHashIndex spentTXO = new BlockTransactionHashIndex(spentTxHash.getHash(), spentTxHash.getHeight(), previousTransaction.getDate(), spentTxHash.getFee(), spentOutput.getIndex(), spentOutput.getValue(), spendingTXI);
 
-                    Optional<BlockTransactionHashIndex> optionalReference = transactionOutputs.stream().filter(receivedTXO -> receivedTXO.getHash().equals(spentTXO.getHash()) && receivedTXO.getIndex() == spentTXO.getIndex()).findFirst();
-                    if(optionalReference.isEmpty()) {
+                    BlockTransactionHashIndex receivedTXO = receivedOutpoints.get(new Outpoint(spentTxHash.getHash(), spentOutput.getIndex()));
+                    if(receivedTXO == null) {
+                        BlockTransactionHashIndex spentTXO = new BlockTransactionHashIndex(spentTxHash.getHash(), spentTxHash.getHeight(), previousTransaction.getDate(), spentTxHash.getFee(), spentOutput.getIndex(), spentOutput.getValue(), spendingTXI);
                         throw new IllegalStateException("Found spent transaction output " + spentTXO + " but no record of receiving it");
                     }
 
-                    BlockTransactionHashIndex receivedTXO = optionalReference.get();
                     receivedTXO.setSpentBy(spendingTXI);
                 }
             }
         }
 
-        if(!transactionOutputs.equals(node.getTransactionOutputs())) {
-            node.updateTransactionOutputs(transactionOutputs);
-        }
+        return transactionOutputs;
     }
 
     public Map<Sha256Hash, BlockTransaction> getReferencedTransactions(Set<Sha256Hash> references, String scriptHash) throws ServerException {
+        Map<Sha256Hash, BlockTransaction> transactionMap = new HashMap<>();
         Set<String> txids = new LinkedHashSet<>(references.size());
         for(Sha256Hash reference : references) {
-            txids.add(reference.toString());
+            BlockTransaction cachedBlockTransaction = TransactionCache.get().getConfirmedBlockTransaction(reference);
+            if(cachedBlockTransaction != null) {
+                transactionMap.put(reference, cachedBlockTransaction);
+            } else {
+                txids.add(reference.toString());
+            }
+        }
+
+        if(txids.isEmpty()) {
+            return transactionMap;
         }
 
         Map<String, VerboseTransaction> result = electrumServerRpc.getVerboseTransactions(getTransport(), txids, scriptHash);
 
-        Map<Sha256Hash, BlockTransaction> transactionMap = new HashMap<>();
         for(String txid : result.keySet()) {
             Sha256Hash hash = Sha256Hash.wrap(txid);
-            BlockTransaction blockTransaction = result.get(txid).getBlockTransaction();
+            VerboseTransaction verboseTransaction = result.get(txid);
+            BlockTransaction blockTransaction = verboseTransaction.getBlockTransaction();
             transactionMap.put(hash, blockTransaction);
+            TransactionCache.get().putBlockTransaction(blockTransaction, verboseTransaction.confirmations);
         }
 
         return transactionMap;
@@ -710,21 +922,11 @@ public class ElectrumServer {
     }
 
     public static Map<String, WalletNode> getAllScriptHashes(Wallet wallet) {
-        Map<String, WalletNode> scriptHashes = new HashMap<>();
-        List<KeyPurpose> purposes = List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE);
-        for(KeyPurpose keyPurpose : purposes) {
-            for(WalletNode childNode : wallet.getNode(keyPurpose).getChildren()) {
-                scriptHashes.put(getScriptHash(wallet, childNode), childNode);
-            }
-        }
-
-        return scriptHashes;
+        return ScriptHashIndex.get(wallet).getAllScriptHashes(wallet);
     }
 
     public static String getScriptHash(Wallet wallet, WalletNode node) {
-        byte[] hash = Sha256Hash.hash(wallet.getOutputScript(node).getProgram());
-        byte[] reversed = Utils.reverseBytes(hash);
-        return Utils.bytesToHex(reversed);
+        return ScriptHashIndex.get(wallet).getScriptHash(wallet, node);
     }
 
     public static String getScriptHash(TransactionOutput output) {
@@ -755,6 +957,25 @@ public class ElectrumServer {
         return serverVersion.size() > 0 && serverVersion.get(0).toLowerCase().contains("electrumx");
     }
 
+    private static ElectrumServerRpc probeServerRpc(List<String> serverVersion) throws ServerException {
+        if(supportsBatching(serverVersion)) {
+            log.debug("Upgrading to batched JSON-RPC");
+            Integer batchSize = Config.get().getServerBatchSize();
+            Integer batchBytes = Config.get().getServerBatchBytes();
+            return new BatchedElectrumServerRpc(batchSize == null ? BatchedElectrumServerRpc.DEFAULT_MAX_BATCH_SIZE : batchSize,
+                    batchBytes == null ? BatchedElectrumServerRpc.DEFAULT_MAX_BATCH_BYTES : batchBytes);
+        }
+
+        Integer pipelineSize = Config.get().getServerPipelineSize();
+        PipelinedElectrumServerRpc pipelinedElectrumServerRpc = new PipelinedElectrumServerRpc(pipelineSize == null ? PipelinedElectrumServerRpc.DEFAULT_WINDOW_SIZE : pipelineSize);
+        if(pipelinedElectrumServerRpc.getWindowSize() > 1 && pipelinedElectrumServerRpc.supportsPipelining(getTransport())) {
+            log.debug("Upgrading to pipelined JSON-RPC with a window of " + pipelinedElectrumServerRpc.getWindowSize() + " requests");
+            return pipelinedElectrumServerRpc;
+        }
+
+        return new SimpleElectrumServerRpc();
+    }
+
     public static class ServerVersionService extends Service<List<String>> {
         @Override
         protected Task<List<String>> createTask() {
@@ -862,15 +1083,16 @@ public class ElectrumServer {
                         List<String> serverVersion = electrumServer.getServerVersion();
                         firstCall = false;
 
-                        //If electrumx is detected, we can upgrade to batched RPC. Electrs/EPS do not support batching.
-                        if(supportsBatching(serverVersion)) {
-                            log.debug("Upgrading to batched JSON-RPC");
-                            electrumServerRpc = new BatchedElectrumServerRpc();
-                        }
+                        //If electrumx is detected, we can upgrade to batched RPC. Electrs/EPS do not support batching, but can be sent pipelined requests.
+                        electrumServerRpc = probeServerRpc(serverVersion);
 
                         BlockHeaderTip tip;
                         if(subscribe) {
                             tip = electrumServer.subscribeBlockHeaders();
+                            if(tip.hex != null) {
+                                BlockHeaderStore.get().putTip(tip.height, Utils.hexToBytes(tip.hex));
+                                electrumServer.verifyStoredBlockHeaders();
+                            }
                             subscribedScriptHashes.clear();
                         } else {
                             tip = new BlockHeaderTip();
@@ -892,6 +1114,10 @@ public class ElectrumServer {
                         if(reader.isAlive()) {
                             electrumServer.ping();
 
+                            if(BlockHeaderStore.get().isVerificationRequired()) {
+                                electrumServer.verifyStoredBlockHeaders();
+                            }
+
                             long elapsed = System.currentTimeMillis() - feeRatesRetrievedAt;
                             if(elapsed > FEE_RATES_PERIOD) {
                                 Map<Integer, Double> blockTargetFeeRates = electrumServer.getFeeEstimates(SendController.TARGET_BLOCKS_RANGE);
@@ -1014,7 +1240,7 @@ public class ElectrumServer {
     public static class TransactionHistoryService extends Service<Boolean> {
         private final Wallet wallet;
         private final Set<WalletNode> nodes;
-        private final static Map<Wallet, Object> walletSynchronizeLocks = new HashMap<>();
+        private final static Map<Wallet, Object> walletSynchronizeLocks = new ConcurrentHashMap<>();
 
         public TransactionHistoryService(Wallet wallet) {
             this.wallet = wallet;
@@ -1030,8 +1256,8 @@ public class ElectrumServer {
         protected Task<Boolean> createTask() {
             return new Task<>() {
                 protected Boolean call() throws ServerException {
-                    walletSynchronizeLocks.putIfAbsent(wallet, new Object());
-                    synchronized(walletSynchronizeLocks.get(wallet)) {
+                    //Requests for different wallets can be in flight at the same time over the multiplexed transport
+                    synchronized(walletSynchronizeLocks.computeIfAbsent(wallet, w -> new Object())) {
                         ElectrumServer electrumServer = new ElectrumServer();
                         Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap = (nodes == null ? electrumServer.getHistory(wallet) : electrumServer.getHistory(wallet, nodes));
                         electrumServer.getReferencedTransactions(wallet, nodeTransactionMap);
@@ -1217,4 +1443,31 @@ public class ElectrumServer {
             };
         }
     }
+
+    private static class Outpoint {
+        private final Sha256Hash hash;
+        private final long index;
+
+        public Outpoint(Sha256Hash hash, long index) {
+            this.hash = hash;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Outpoint outpoint = (Outpoint)o;
+            return index == outpoint.index && hash.equals(outpoint.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(hash, index);
+        }
+    }
 }
@@ -24,6 +24,8 @@ public interface ElectrumServerRpc {
 
     Map<Integer, String> getBlockHeaders(Transport transport, Wallet wallet, Set<Integer> blockHeights);
 
+    BlockHeaders getBlockHeaderRange(Transport transport, int startHeight, int count);
+
     Map<String, String> getTransactions(Transport transport, Wallet wallet, Set<String> txids);
 
     Map<String, VerboseTransaction> getVerboseTransactions(Transport transport, Set<String> txids, String scriptHash);
@@ -0,0 +1,234 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sparrowwallet.sparrow.io.Config;
+import com.sparrowwallet.sparrow.io.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History of mempool sizes by fee rate, held as a fixed capacity ring of one minute buckets covering the provided period.
+ * Each bucket stores the total vsize in each of the provided fee rate bands, aggregated once as the mempool histogram is received.
+ * The history can optionally be written to disk so that the chart is populated on launch, discarding buckets that have since left the period.
+ */
+public class MempoolHistogram {
+    private static final Logger log = LoggerFactory.getLogger(MempoolHistogram.class);
+
+    private static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int FILE_VERSION = 1;
+
+    private static final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("MempoolHistogramSaveThread-%d").build());
+
+    private final File histogramFile;
+    private final long periodMillis;
+    private final List<Long> feeRates;
+    private final int capacity;
+    private final long[] bucketTimes;
+    private final long[][] bucketVSizes;
+    //Index of the oldest bucket, with the buckets held in time order from there
+    private int start;
+    private int size;
+
+    /**
+     * Creates a history covering the given number of hours, with bands bounded above by each of the given ascending fee rates
+     */
+    public MempoolHistogram(File histogramFile, int periodHours, List<Long> feeRates) {
+        this.histogramFile = histogramFile;
+        this.periodMillis = TimeUnit.HOURS.toMillis(periodHours);
+        this.feeRates = List.copyOf(feeRates);
+        this.capacity = (int)(periodMillis / BUCKET_MILLIS) + 1;
+        this.bucketTimes = new long[capacity];
+        this.bucketVSizes = new long[capacity][feeRates.size()];
+        if(histogramFile != null && Config.get().isPersistMempoolHistogram()) {
+            load();
+        }
+    }
+
+    /**
+     * Adds the mempool fee rate histogram received at the given time, replacing any histogram already received in the same minute
+     */
+    public synchronized void add(Date date, Set<MempoolRateSize> rateSizes) {
+        if(rateSizes == null) {
+            return;
+        }
+
+        long bucketTime = date.getTime() - Math.floorMod(date.getTime(), BUCKET_MILLIS);
+        if(size > 0 && bucketTime < getBucketTime(size - 1)) {
+            return;
+        }
+
+        if(size == 0 || bucketTime > getBucketTime(size - 1)) {
+            if(size == capacity) {
+                start = (start + 1) % capacity;
+                size--;
+            }
+            size++;
+        }
+
+        int index = (start + size - 1) % capacity;
+        bucketTimes[index] = bucketTime;
+        Arrays.fill(bucketVSizes[index], 0L);
+        for(MempoolRateSize rateSize : rateSizes) {
+            int band = getBand(rateSize.getFee());
+            if(band >= 0) {
+                bucketVSizes[index][band] += rateSize.getVSize();
+            }
+        }
+
+        if(histogramFile != null && Config.get().isPersistMempoolHistogram()) {
+            List<Bucket> buckets = getBuckets(0);
+            saveExecutor.submit(() -> save(buckets));
+        }
+    }
+
+    /**
+     * Returns the index of the band containing the fee rate, where each band includes its upper fee rate but not that of the band below
+     */
+    private int getBand(long feeRate) {
+        if(feeRate <= 0) {
+            return -1;
+        }
+
+        for(int band = 0; band < feeRates.size(); band++) {
+            if(feeRate <= feeRates.get(band)) {
+                return band;
+            }
+        }
+
+        return -1;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the buckets in time order that fall within the period, or the only bucket if there is just one
+     */
+    public synchronized List<Bucket> getPeriodBuckets() {
+        if(size == 1) {
+            return getBuckets(0);
+        }
+
+        return getBuckets(System.currentTimeMillis() - periodMillis);
+    }
+
+    private List<Bucket> getBuckets(long after) {
+        List<Bucket> buckets = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            long bucketTime = getBucketTime(i);
+            if(bucketTime > after) {
+                buckets.add(new Bucket(bucketTime, bucketVSizes[(start + i) % capacity].clone()));
+            }
+        }
+
+        return buckets;
+    }
+
+    private long getBucketTime(int position) {
+        return bucketTimes[(start + position) % capacity];
+    }
+
+    private void load() {
+        if(!histogramFile.exists()) {
+            return;
+        }
+
+        try(DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(histogramFile)))) {
+            //The band totals are only meaningful if the fee rate range has not changed since they were written
+            if(inputStream.readInt() != FILE_VERSION || inputStream.readInt() != feeRates.size()) {
+                throw new IOException("Unsupported mempool histogram file format");
+            }
+            for(Long feeRate : feeRates) {
+                if(inputStream.readLong() != feeRate) {
+                    throw new IOException("Mempool histogram file fee rates do not match");
+                }
+            }
+
+            long after = System.currentTimeMillis() - periodMillis;
+            int count = inputStream.readInt();
+            for(int i = 0; i < count; i++) {
+                long bucketTime = inputStream.readLong();
+                long[] vSizes = new long[feeRates.size()];
+                for(int band = 0; band < vSizes.length; band++) {
+                    vSizes[band] = inputStream.readLong();
+                }
+
+                if(bucketTime > after && (size == 0 || bucketTime > getBucketTime(size - 1))) {
+                    if(size == capacity) {
+                        start = (start + 1) % capacity;
+                        size--;
+                    }
+                    int index = (start + size) % capacity;
+                    bucketTimes[index] = bucketTime;
+                    bucketVSizes[index] = vSizes;
+                    size++;
+                }
+            }
+        } catch(IOException e) {
+            log.warn("Discarding invalid mempool histogram file at " + histogramFile.getAbsolutePath(), e);
+            start = 0;
+            size = 0;
+            histogramFile.delete();
+        }
+    }
+
+    private void save(List<Bucket> buckets) {
+        File tempFile = new File(histogramFile.getParentFile(), histogramFile.getName() + "." + Storage.TEMP_BACKUP_EXTENSION);
+        try {
+            try(DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                outputStream.writeInt(FILE_VERSION);
+                outputStream.writeInt(feeRates.size());
+                for(Long feeRate : feeRates) {
+                    outputStream.writeLong(feeRate);
+                }
+
+                outputStream.writeInt(buckets.size());
+                for(Bucket bucket : buckets) {
+                    outputStream.writeLong(bucket.getDate().getTime());
+                    for(long vSize : bucket.vSizes) {
+                        outputStream.writeLong(vSize);
+                    }
+                }
+            }
+
+            try {
+                Files.move(tempFile.toPath(), histogramFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), histogramFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch(IOException e) {
+            log.warn("Error writing mempool histogram file to " + histogramFile.getAbsolutePath(), e);
+        }
+    }
+
+    public static class Bucket {
+        private final Date date;
+        private final long[] vSizes;
+
+        private Bucket(long time, long[] vSizes) {
+            this.date = new Date(time);
+            this.vSizes = vSizes;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        /**
+         * Returns the total vsize of mempool transactions in the fee rate band at the given index of the histogram fee rates
+         */
+        public long getVSize(int band) {
+            return vSizes[band];
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.github.arteam.simplejsonrpc.client.JsonRpcClient;
+import com.github.arteam.simplejsonrpc.client.Transport;
+import com.github.arteam.simplejsonrpc.client.exception.JsonRpcException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.sparrow.EventManager;
+import com.sparrowwallet.sparrow.event.WalletHistoryStatusEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * For servers that do not support JSON-RPC batch requests (Electrs, EPS, BWT). Rather than waiting for each response before sending the next request,
+ * up to windowSize individual requests are kept in flight at once over the multiplexed transport, approaching the throughput of a batch.
+ */
+public class PipelinedElectrumServerRpc extends SimpleElectrumServerRpc {
+    private static final Logger log = LoggerFactory.getLogger(PipelinedElectrumServerRpc.class);
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    private static final int PROBE_REQUESTS = 3;
+    private static final int MAX_RETRIES = 5;
+    private static final int RETRY_DELAY = 1;
+
+    private static final ExecutorService requestExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ElectrumServerPipelineThread-%d").build());
+
+    private final int windowSize;
+
+    public PipelinedElectrumServerRpc() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public PipelinedElectrumServerRpc(int windowSize) {
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Checks that the server correctly answers several requests sent without waiting for each response
+     */
+    public boolean supportsPipelining(Transport transport) {
+        JsonRpcClient client = new JsonRpcClient(transport);
+        List<Integer> probes = new ArrayList<>();
+        for(int i = 0; i < Math.min(PROBE_REQUESTS, windowSize); i++) {
+            probes.add(i);
+        }
+
+        Map<Integer, Future<Object>> futures = pipeline(probes, probe -> client.createRequest().method("server.ping").id(idCounter.incrementAndGet()).executeNullable());
+        try {
+            for(Future<Object> future : futures.values()) {
+                getResult(future);
+            }
+
+            return true;
+        } catch(Exception e) {
+            log.debug("Server does not support pipelined requests", e);
+            cancel(futures);
+            return false;
+        }
+    }
+
+    @Override
+    public Map<String, ScriptHashTx[]> getScriptHashHistory(Transport transport, Wallet wallet, Map<String, String> pathScriptHashes, boolean failOnError) {
+        JsonRpcClient client = new JsonRpcClient(transport);
+        EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Loading transactions"));
+
+        Map<String, Future<ScriptHashTx[]>> futures = pipeline(pathScriptHashes.keySet(), path ->
+                new RetryLogic<ScriptHashTx[]>(MAX_RETRIES, RETRY_DELAY, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(() ->
+                        client.createRequest().returnAs(ScriptHashTx[].class).method("blockchain.scripthash.get_history").id(path + "-" + idCounter.incrementAndGet()).params(pathScriptHashes.get(path)).execute()));
+
+        return getScriptHashTxes(futures, failOnError);
+    }
+
+    @Override
+    public Map<String, ScriptHashTx[]> getScriptHashMempool(Transport transport, Wallet wallet, Map<String, String> pathScriptHashes, boolean failOnError) {
+        JsonRpcClient client = new JsonRpcClient(transport);
+
+        Map<String, Future<ScriptHashTx[]>> futures = pipeline(pathScriptHashes.keySet(), path ->
+                new RetryLogic<ScriptHashTx[]>(MAX_RETRIES, RETRY_DELAY, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(() ->
+                        client.createRequest().returnAs(ScriptHashTx[].class).method("blockchain.scripthash.get_mempool").id(path + "-" + idCounter.incrementAndGet()).params(pathScriptHashes.get(path)).execute()));
+
+        return getScriptHashTxes(futures, failOnError);
+    }
+
+    private Map<String, ScriptHashTx[]> getScriptHashTxes(Map<String, Future<ScriptHashTx[]>> futures, boolean failOnError) {
+        Map<String, ScriptHashTx[]> result = new LinkedHashMap<>();
+        for(String path : futures.keySet()) {
+            try {
+                result.put(path, getResult(futures.get(path)));
+            } catch(Exception e) {
+                if(failOnError) {
+                    cancel(futures);
+                    throw new ElectrumServerRpcException("Failed to retrieve reference for path: " + path, e);
+                }
+
+                result.put(path, new ScriptHashTx[] {ScriptHashTx.ERROR_TX});
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, String> subscribeScriptHashes(Transport transport, Wallet wallet, Map<String, String> pathScriptHashes) {
+        JsonRpcClient client = new JsonRpcClient(transport);
+        EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Finding transactions"));
+
+        Map<String, Future<String>> futures = pipeline(pathScriptHashes.keySet(), path ->
+                new RetryLogic<String>(MAX_RETRIES, RETRY_DELAY, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(() ->
+                        client.createRequest().returnAs(String.class).method("blockchain.scripthash.subscribe").id(path + "-" + idCounter.incrementAndGet()).params(pathScriptHashes.get(path)).executeNullable()));
+
+        Map<String, String> result = new LinkedHashMap<>();
+        for(String path : futures.keySet()) {
+            try {
+                result.put(path, getResult(futures.get(path)));
+            } catch(Exception e) {
+                //Even if we have some successes, failure to subscribe for all script hashes will result in outdated wallet view. Don't proceed.
+                cancel(futures);
+                throw new ElectrumServerRpcException("Failed to retrieve reference for path: " + path, e);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<Integer, String> getBlockHeaders(Transport transport, Wallet wallet, Set<Integer> blockHeights) {
+        JsonRpcClient client = new JsonRpcClient(transport);
+        EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Retrieving blocks"));
+
+        Map<Integer, Future<String>> futures = pipeline(blockHeights, blockHeight ->
+                new RetryLogic<String>(MAX_RETRIES, RETRY_DELAY, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(() ->
+                        client.createRequest().returnAs(String.class).method("blockchain.block.header").id(idCounter.incrementAndGet()).params(blockHeight).execute()));
+
+        Map<Integer, String> result = new LinkedHashMap<>();
+        for(Integer blockHeight : futures.keySet()) {
+            try {
+                result.put(blockHeight, getResult(futures.get(blockHeight)));
+            } catch(ServerException e) {
+                //If there is an error with the server connection, don't keep trying - this may take too long given many blocks
+                cancel(futures);
+                throw new ElectrumServerRpcException("Failed to retrieve block header for block height: " + blockHeight, e);
+            } catch(JsonRpcException e) {
+                log.warn("Failed to retrieve block header for block height: " + blockHeight + " (" + e.getErrorMessage() + ")");
+            } catch(Exception e) {
+                log.warn("Failed to retrieve block header for block height: " + blockHeight + " (" + e.getMessage() + ")");
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, String> getTransactions(Transport transport, Wallet wallet, Set<String> txids) {
+        JsonRpcClient client = new JsonRpcClient(transport);
+        EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Retrieving transactions"));
+
+        Map<String, Future<String>> futures = pipeline(txids, txid ->
+                new RetryLogic<String>(MAX_RETRIES, RETRY_DELAY, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(() ->
+                        client.createRequest().returnAs(String.class).method("blockchain.transaction.get").id(idCounter.incrementAndGet()).params(txid).execute()));
+
+        Map<String, String> result = new LinkedHashMap<>();
+        for(String txid : futures.keySet()) {
+            try {
+                result.put(txid, getResult(futures.get(txid)));
+            } catch(Exception e) {
+                result.put(txid, Sha256Hash.ZERO_HASH.toString());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Sends a request for each key, waiting only when windowSize requests are already outstanding
+     */
+    private <K, V> Map<K, Future<V>> pipeline(Collection<K> keys, PipelinedRequest<K, V> request) {
+        Semaphore window = new Semaphore(windowSize);
+        Map<K, Future<V>> futures = new LinkedHashMap<>();
+        for(K key : keys) {
+            try {
+                window.acquire();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel(futures);
+                throw new ElectrumServerRpcException("Interrupted while sending pipelined requests", e);
+            }
+
+            futures.put(key, requestExecutor.submit(() -> {
+                try {
+                    return request.call(key);
+                } finally {
+                    window.release();
+                }
+            }));
+        }
+
+        return futures;
+    }
+
+    private static <V> V getResult(Future<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof Exception) {
+                throw (Exception)e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    private static void cancel(Map<?, ? extends Future<?>> futures) {
+        for(Future<?> future : futures.values()) {
+            future.cancel(true);
+        }
+    }
+
+    private interface PipelinedRequest<K, V> {
+        V call(K key) throws Exception;
+    }
+}
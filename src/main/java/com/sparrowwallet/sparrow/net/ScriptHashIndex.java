@@ -0,0 +1,137 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.google.common.collect.MapMaker;
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+
+import java.util.*;
+
+/**
+ * Bidirectional index between the Electrum script hashes of a wallet's address nodes and the nodes themselves.
+ * Script hashes are derived once per node and the index grows as nodes are added with WalletNode.fillToIndex.
+ * Indexes are held per wallet instance, and should be invalidated when the wallet settings (and therefore the derived scripts) change or the wallet is closed.
+ * The index does not reference its wallet, which is passed to the methods that derive script hashes, so that wallets that are only serialized are not retained.
+ * The index also records the last Electrum status of each script hash for which the wallet holds complete history. These statuses are
+ * stored in the wallet file so that unchanged script hashes do not need their history fetched again on reconnection.
+ */
+public class ScriptHashIndex {
+    private static final List<KeyPurpose> KEY_PURPOSES = List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE);
+
+    //Weak keys are compared by identity, so wallet copies are indexed separately and are released once no longer referenced elsewhere
+    private static final Map<Wallet, ScriptHashIndex> walletIndexes = new MapMaker().weakKeys().makeMap();
+
+    private final Map<String, String> pathScriptHashes = new HashMap<>();
+    private final Map<String, WalletNode> scriptHashNodes = new HashMap<>();
+    private final Map<String, String> statuses = new HashMap<>();
+    private final Map<String, String> pendingStatuses = new HashMap<>();
+
+    private ScriptHashIndex() {
+        //Use get
+    }
+
+    public static ScriptHashIndex get(Wallet wallet) {
+        return walletIndexes.computeIfAbsent(wallet, k -> new ScriptHashIndex());
+    }
+
+    /**
+     * Returns the index of the wallet if one has been created, without creating one
+     */
+    public static ScriptHashIndex getIfPresent(Wallet wallet) {
+        return walletIndexes.get(wallet);
+    }
+
+    public static void invalidate(Wallet wallet) {
+        if(wallet != null) {
+            walletIndexes.remove(wallet);
+        }
+    }
+
+    public synchronized String getScriptHash(Wallet wallet, WalletNode node) {
+        String scriptHash = pathScriptHashes.get(node.getDerivationPath());
+        if(scriptHash == null) {
+            scriptHash = calculateScriptHash(wallet, node);
+            pathScriptHashes.put(node.getDerivationPath(), scriptHash);
+            scriptHashNodes.put(scriptHash, node);
+        }
+
+        return scriptHash;
+    }
+
+    /**
+     * Returns the address node with the given script hash, or null if the script hash does not belong to this wallet
+     */
+    public synchronized WalletNode getWalletNode(Wallet wallet, String scriptHash) {
+        WalletNode node = scriptHashNodes.get(scriptHash);
+        if(node == null && indexAddressNodes(wallet)) {
+            node = scriptHashNodes.get(scriptHash);
+        }
+
+        return node;
+    }
+
+    public synchronized Map<String, WalletNode> getAllScriptHashes(Wallet wallet) {
+        indexAddressNodes(wallet);
+        return new HashMap<>(scriptHashNodes);
+    }
+
+    /**
+     * Returns the status of the script hash when the history held in the wallet was retrieved, or null if unknown
+     */
+    public synchronized String getStatus(String scriptHash) {
+        return statuses.get(scriptHash);
+    }
+
+    /**
+     * Records the status of a script hash whose history is being retrieved. The status is only stored once the history has been applied to the wallet with commitStatus.
+     */
+    public synchronized void setPendingStatus(String scriptHash, String status) {
+        if(status == null) {
+            statuses.remove(scriptHash);
+            pendingStatuses.remove(scriptHash);
+        } else {
+            pendingStatuses.put(scriptHash, status);
+        }
+    }
+
+    public synchronized void commitStatus(String scriptHash) {
+        String status = pendingStatuses.remove(scriptHash);
+        if(status != null) {
+            statuses.put(scriptHash, status);
+        }
+    }
+
+    public synchronized Map<String, String> getStatuses() {
+        return new HashMap<>(statuses);
+    }
+
+    public synchronized void setStatuses(Map<String, String> statuses) {
+        this.statuses.clear();
+        this.statuses.putAll(statuses);
+    }
+
+    /**
+     * Derives the script hashes of any address nodes that have been added since the last call, returning true if any were found
+     */
+    private boolean indexAddressNodes(Wallet wallet) {
+        boolean added = false;
+        for(KeyPurpose keyPurpose : KEY_PURPOSES) {
+            for(WalletNode childNode : wallet.getNode(keyPurpose).getChildren()) {
+                if(!pathScriptHashes.containsKey(childNode.getDerivationPath())) {
+                    getScriptHash(wallet, childNode);
+                    added = true;
+                }
+            }
+        }
+
+        return added;
+    }
+
+    private static String calculateScriptHash(Wallet wallet, WalletNode node) {
+        byte[] hash = Sha256Hash.hash(wallet.getOutputScript(node).getProgram());
+        byte[] reversed = Utils.reverseBytes(hash);
+        return Utils.bytesToHex(reversed);
+    }
+}
@@ -22,7 +22,7 @@ public class SimpleElectrumServerRpc implements ElectrumServerRpc {
     private static final int MAX_RETRIES = 10;
     private static final int RETRY_DELAY = 1;
 
-    private final AtomicLong idCounter = new AtomicLong();
+    protected final AtomicLong idCounter = new AtomicLong();
 
     @Override
     public void ping(Transport transport) {
@@ -158,6 +158,17 @@ public class SimpleElectrumServerRpc implements ElectrumServerRpc {
         return result;
     }
 
+    @Override
+    public BlockHeaders getBlockHeaderRange(Transport transport, int startHeight, int count) {
+        try {
+            JsonRpcClient client = new JsonRpcClient(transport);
+            return new RetryLogic<BlockHeaders>(MAX_RETRIES, RETRY_DELAY, IllegalStateException.class).getResult(() ->
+                    client.createRequest().returnAs(BlockHeaders.class).method("blockchain.block.headers").id(idCounter.incrementAndGet()).params(startHeight, count).execute());
+        } catch(Exception e) {
+            throw new ElectrumServerRpcException("Failed to retrieve block headers from block height: " + startHeight, e);
+        }
+    }
+
     @Override
     public Map<String, String> getTransactions(Transport transport, Wallet wallet, Set<String> txids) {
         JsonRpcClient client = new JsonRpcClient(transport);
@@ -4,6 +4,7 @@ import com.github.arteam.simplejsonrpc.client.Transport;
 import com.github.arteam.simplejsonrpc.server.JsonRpcServer;
 import com.google.common.net.HostAndPort;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.sparrowwallet.sparrow.io.Config;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
@@ -14,11 +15,18 @@ import javax.net.ssl.SSLHandshakeException;
 import java.io.*;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Multiplexed JSON-RPC transport. Any number of threads may call pass() concurrently - each request is written to the socket as soon as
+ * it is received and registered by its JSON-RPC id (or ids, for a batch). The readInputLoop thread matches each response line to the
+ * outstanding request with the same id, so many requests can be in flight at once on the same connection.
+ */
 public class TcpTransport implements Transport, Closeable {
     private static final Logger log = LoggerFactory.getLogger(TcpTransport.class);
 
@@ -30,21 +38,16 @@ public class TcpTransport implements Transport, Closeable {
 
     private Socket socket;
 
-    private String response;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<String, PendingRequest> pendingRequests = new LinkedHashMap<>();
 
-    private final ReentrantLock readLock = new ReentrantLock();
-    private final Condition readingCondition = readLock.newCondition();
-
-    private final ReentrantLock clientRequestLock = new ReentrantLock();
-    private boolean running = false;
-    private volatile boolean reading = true;
-    private boolean firstRead = true;
-    private int readTimeoutIndex;
+    private volatile boolean running = false;
+    private volatile int readTimeoutIndex;
 
     private final JsonRpcServer jsonRpcServer = new JsonRpcServer();
     private final SubscriptionService subscriptionService = new SubscriptionService();
 
-    private Exception lastException;
+    private volatile Exception lastException;
     private final Gson gson = new Gson();
 
     public TcpTransport(HostAndPort server) {
@@ -58,84 +61,86 @@ public class TcpTransport implements Transport, Closeable {
 
     @Override
     public @NotNull String pass(@NotNull String request) throws IOException {
-        clientRequestLock.lock();
-        try {
-            Rpc sentRpc = request.startsWith("{") ? gson.fromJson(request, Rpc.class) : null;
-            Rpc recvRpc;
-            String recv;
+        PendingRequest pendingRequest = new PendingRequest(getIds(request), request.startsWith("["));
+        registerRequest(pendingRequest);
 
+        try {
             writeRequest(request);
-            do {
-                recv = readResponse();
-                recvRpc = recv.startsWith("{") ? gson.fromJson(response, Rpc.class) : null;
-            } while(!Objects.equals(recvRpc, sentRpc));
-
-            return recv;
+            return readResponse(pendingRequest);
         } finally {
-            clientRequestLock.unlock();
+            unregisterRequest(pendingRequest);
+        }
+    }
+
+    private void registerRequest(PendingRequest pendingRequest) throws IOException {
+        synchronized(pendingRequests) {
+            //Responses are matched by id, so wait for any outstanding request with a clashing id to complete first
+            while(pendingRequest.ids.stream().anyMatch(pendingRequests::containsKey)) {
+                checkReadError();
+
+                try {
+                    pendingRequests.wait(TimeUnit.SECONDS.toMillis(READ_TIMEOUT_SECS[READ_TIMEOUT_SECS.length - 1]));
+                } catch(InterruptedException e) {
+                    throw new IOException("Request thread interrupted");
+                }
+            }
+
+            checkReadError();
+
+            for(String id : pendingRequest.ids) {
+                pendingRequests.put(id, pendingRequest);
+            }
+        }
+    }
+
+    private void unregisterRequest(PendingRequest pendingRequest) {
+        synchronized(pendingRequests) {
+            pendingRequests.values().removeIf(request -> request == pendingRequest);
+            pendingRequests.notifyAll();
+        }
+    }
+
+    private void checkReadError() throws IOException {
+        Exception exception = lastException;
+        if(exception != null) {
+            throw new IOException("Error reading response: " + exception.getMessage(), exception);
         }
     }
 
     private void writeRequest(String request) throws IOException {
-        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
-        out.println(request);
-        out.flush();
+        writeLock.lock();
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+            out.println(request);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    private String readResponse() throws IOException {
+    private String readResponse(PendingRequest pendingRequest) throws IOException {
+        String response;
         try {
-            if(!readLock.tryLock(READ_TIMEOUT_SECS[readTimeoutIndex], TimeUnit.SECONDS)) {
-                readTimeoutIndex = Math.min(readTimeoutIndex + 1, READ_TIMEOUT_SECS.length - 1);
-                log.debug("No response from server, setting read timeout to " + READ_TIMEOUT_SECS[readTimeoutIndex] + " secs");
-                throw new IOException("No response from server");
-            }
+            response = pendingRequest.response.get(READ_TIMEOUT_SECS[readTimeoutIndex], TimeUnit.SECONDS);
+        } catch(TimeoutException e) {
+            readTimeoutIndex = Math.min(readTimeoutIndex + 1, READ_TIMEOUT_SECS.length - 1);
+            log.debug("No response from server, setting read timeout to " + READ_TIMEOUT_SECS[readTimeoutIndex] + " secs");
+            throw new IOException("No response from server");
         } catch(InterruptedException e) {
             throw new IOException("Read thread interrupted");
+        } catch(ExecutionException e) {
+            throw new IOException("Error reading response: " + e.getCause().getMessage(), e.getCause());
         }
 
         if(readTimeoutIndex == READ_TIMEOUT_SECS.length - 1) {
             readTimeoutIndex--;
         }
 
-        try {
-            if(firstRead) {
-                readingCondition.signal();
-                firstRead = false;
-            }
-
-            while(reading) {
-                try {
-                    readingCondition.await();
-                } catch(InterruptedException e) {
-                    //Restore interrupt status and continue
-                    Thread.currentThread().interrupt();
-                }
-            }
-
-            if(lastException != null) {
-                throw new IOException("Error reading response: " + lastException.getMessage(), lastException);
-            }
-
-            reading = true;
-
-            readingCondition.signal();
-            return response;
-        } finally {
-            readLock.unlock();
-        }
+        return response;
     }
 
     public void readInputLoop() throws ServerException {
-        readLock.lock();
-
         try {
-            try {
-                //Don't start reading until first RPC request is sent
-                readingCondition.await();
-            } catch(InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-
             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
 
             while(running) {
@@ -146,20 +151,12 @@ public class TcpTransport implements Transport, Closeable {
                         jsonRpcServer.handle(received, subscriptionService);
                     } else {
                         //Handle client's response
-                        response = received;
-                        reading = false;
-                        readingCondition.signal();
-                        readingCondition.await();
+                        dispatchResponse(received);
                     }
-                } catch(InterruptedException e) {
-                    //Restore interrupt status and continue
-                    Thread.currentThread().interrupt();
                 } catch(Exception e) {
                     log.trace("Connection error while reading", e);
                     if(running) {
-                        lastException = e;
-                        reading = false;
-                        readingCondition.signal();
+                        failPendingRequests(e);
                         //Allow this thread to terminate as we will need to reconnect with a new transport anyway
                         running = false;
                     }
@@ -168,17 +165,67 @@ public class TcpTransport implements Transport, Closeable {
         } catch(IOException e) {
             log.error("Error opening socket inputstream", e);
             if(running) {
-                lastException = e;
-                reading = false;
-                readingCondition.signal();
+                failPendingRequests(e);
                 //Allow this thread to terminate as we will need to reconnect with a new transport anyway
                 running = false;
             }
-        } finally {
-            readLock.unlock();
         }
     }
 
+    private void dispatchResponse(String received) {
+        String id = getResponseId(received);
+
+        PendingRequest pendingRequest;
+        synchronized(pendingRequests) {
+            if(id != null) {
+                pendingRequest = pendingRequests.get(id);
+            } else {
+                //Errors for unparseable requests (usually batches the server does not support) are returned with a null id
+                pendingRequest = pendingRequests.values().stream().filter(request -> request.batch).findFirst()
+                        .orElse(pendingRequests.values().stream().findFirst().orElse(null));
+            }
+        }
+
+        if(pendingRequest == null) {
+            log.debug("Discarding response for request id " + id + " that is no longer outstanding");
+        } else {
+            pendingRequest.response.complete(received);
+        }
+    }
+
+    private void failPendingRequests(Exception e) {
+        synchronized(pendingRequests) {
+            lastException = e;
+            pendingRequests.values().forEach(request -> request.response.completeExceptionally(e));
+            pendingRequests.notifyAll();
+        }
+    }
+
+    private Set<String> getIds(String json) {
+        Set<String> ids = new HashSet<>();
+        try {
+            if(json.startsWith("[")) {
+                for(Rpc rpc : gson.fromJson(json, Rpc[].class)) {
+                    ids.add(rpc.id);
+                }
+            } else if(json.startsWith("{")) {
+                ids.add(gson.fromJson(json, Rpc.class).id);
+            }
+        } catch(JsonParseException e) {
+            log.debug("Could not parse request ids", e);
+        }
+
+        if(ids.isEmpty()) {
+            ids.add(null);
+        }
+
+        return ids;
+    }
+
+    private String getResponseId(String json) {
+        return getIds(json).stream().filter(Objects::nonNull).findFirst().orElse(null);
+    }
+
     protected String readInputStream(BufferedReader in) throws IOException {
         String response = in.readLine();
 
@@ -216,28 +263,23 @@ public class TcpTransport implements Transport, Closeable {
     public void close() throws IOException {
         if(socket != null) {
             running = false;
+            failPendingRequests(new IOException("Connection closed"));
             socket.close();
         }
     }
 
-    private static class Rpc {
-        public String id;
+    private static class PendingRequest {
+        private final Set<String> ids;
+        private final boolean batch;
+        private final CompletableFuture<String> response = new CompletableFuture<>();
 
-        @Override
-        public boolean equals(Object o) {
-            if(this == o) {
-                return true;
-            }
-            if(o == null || getClass() != o.getClass()) {
-                return false;
-            }
-            Rpc rpc = (Rpc) o;
-            return Objects.equals(id, rpc.id);
+        public PendingRequest(Set<String> ids, boolean batch) {
+            this.ids = ids;
+            this.batch = batch;
         }
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(id);
-        }
+    private static class Rpc {
+        public String id;
     }
 }
@@ -0,0 +1,247 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+import com.sparrowwallet.sparrow.io.Config;
+import com.sparrowwallet.sparrow.io.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of raw transactions keyed by txid, shared between all wallets and transaction tabs. Since a txid commits to the transaction contents, entries never need to be refetched.
+ * Recently used transactions are held in memory up to a fixed size, and the transactions of open wallets are checked before the server is queried.
+ * The transactions of open wallets are referenced, without being copied, from a concurrent map that is maintained on the application thread and read by the server threads.
+ * Confirmed transactions can optionally also be written to disk, where they remain across restarts. This is off by default as the cache is not encrypted.
+ */
+public class TransactionCache {
+    private static final Logger log = LoggerFactory.getLogger(TransactionCache.class);
+
+    private static final long MAX_MEMORY_BYTES = 32 * 1024 * 1024;
+    public static final int REORG_SAFE_CONFIRMATIONS = 6;
+
+    private static TransactionCache INSTANCE;
+
+    private final Map<Sha256Hash, CacheEntry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+
+    private final Map<Sha256Hash, Transaction> openWalletTransactions = new ConcurrentHashMap<>();
+    //Only accessed on the application thread
+    private final Map<Wallet, Set<Sha256Hash>> openWalletTxids = new IdentityHashMap<>();
+
+    private TransactionCache() {
+        //Singleton
+    }
+
+    public static synchronized TransactionCache get() {
+        if(INSTANCE == null) {
+            INSTANCE = new TransactionCache();
+        }
+
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a newly parsed copy of the transaction with the given txid, or null if it is not available locally
+     */
+    public Transaction getTransaction(Sha256Hash txid) {
+        byte[] rawTx = getRawTransaction(txid);
+        if(rawTx != null) {
+            return new Transaction(rawTx);
+        }
+
+        Transaction walletTransaction = openWalletTransactions.get(txid);
+        if(walletTransaction != null) {
+            rawTx = walletTransaction.bitcoinSerialize();
+            putRawTransaction(txid, rawTx, false);
+            return new Transaction(rawTx);
+        }
+
+        rawTx = readRawTransaction(txid);
+        if(rawTx != null) {
+            putRawTransaction(txid, rawTx, false);
+            return new Transaction(rawTx);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns a block transaction for the given txid if it was previously retrieved with enough confirmations to be considered final
+     */
+    public BlockTransaction getConfirmedBlockTransaction(Sha256Hash txid) {
+        synchronized(this) {
+            CacheEntry entry = entries.get(txid);
+            if(entry == null || entry.blockHash == null) {
+                return null;
+            }
+
+            return new BlockTransaction(txid, entry.height, entry.date, 0L, new Transaction(entry.rawTx), entry.blockHash);
+        }
+    }
+
+    public void putTransaction(Sha256Hash txid, Transaction transaction, boolean confirmed) {
+        putRawTransaction(txid, transaction.bitcoinSerialize(), confirmed);
+    }
+
+    public void putBlockTransaction(BlockTransaction blockTransaction, int confirmations) {
+        if(blockTransaction.getTransaction() == null) {
+            return;
+        }
+
+        boolean confirmed = blockTransaction.getHeight() > 0 && confirmations >= REORG_SAFE_CONFIRMATIONS;
+        CacheEntry entry = putRawTransaction(blockTransaction.getHash(), blockTransaction.getTransaction().bitcoinSerialize(), confirmed);
+        if(entry != null && confirmed && blockTransaction.getBlockHash() != null && !Sha256Hash.ZERO_HASH.equals(blockTransaction.getBlockHash())) {
+            synchronized(this) {
+                entry.height = blockTransaction.getHeight();
+                entry.date = blockTransaction.getDate();
+                entry.blockHash = blockTransaction.getBlockHash();
+            }
+        }
+    }
+
+    private synchronized byte[] getRawTransaction(Sha256Hash txid) {
+        CacheEntry entry = entries.get(txid);
+        return entry == null ? null : entry.rawTx;
+    }
+
+    private CacheEntry putRawTransaction(Sha256Hash txid, byte[] rawTx, boolean confirmed) {
+        CacheEntry entry;
+        synchronized(this) {
+            entry = entries.get(txid);
+            if(entry == null) {
+                entry = new CacheEntry(rawTx);
+                entries.put(txid, entry);
+                memoryBytes += rawTx.length;
+                evict();
+            }
+        }
+
+        if(confirmed) {
+            writeRawTransaction(txid, rawTx);
+        }
+
+        return entry;
+    }
+
+    private void evict() {
+        for(Iterator<CacheEntry> iter = entries.values().iterator(); iter.hasNext() && memoryBytes > MAX_MEMORY_BYTES; ) {
+            CacheEntry entry = iter.next();
+            memoryBytes -= entry.rawTx.length;
+            iter.remove();
+        }
+    }
+
+    /**
+     * Sets the wallets that are currently open, releasing the transactions of closed wallets. Must be called on the application thread.
+     */
+    public void setOpenWallets(Collection<Wallet> wallets) {
+        Set<Wallet> openWallets = Collections.newSetFromMap(new IdentityHashMap<>());
+        openWallets.addAll(wallets);
+
+        openWalletTxids.keySet().removeIf(wallet -> !openWallets.contains(wallet));
+        for(Wallet wallet : openWallets) {
+            if(!openWalletTxids.containsKey(wallet)) {
+                Set<Sha256Hash> txids = new HashSet<>();
+                openWalletTxids.put(wallet, txids);
+                for(Map.Entry<Sha256Hash, BlockTransaction> entry : wallet.getTransactions().entrySet()) {
+                    addOpenWalletTransaction(txids, entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        Set<Sha256Hash> txids = new HashSet<>();
+        openWalletTxids.values().forEach(txids::addAll);
+        openWalletTransactions.keySet().retainAll(txids);
+    }
+
+    /**
+     * Adds the transactions referenced by the nodes of an open wallet whose history has changed. Must be called on the application thread.
+     */
+    public void updateOpenWalletTransactions(Wallet wallet, Collection<WalletNode> historyChangedNodes) {
+        Set<Sha256Hash> txids = openWalletTxids.get(wallet);
+        if(txids == null) {
+            return;
+        }
+
+        for(WalletNode node : historyChangedNodes) {
+            for(BlockTransactionHashIndex txo : node.getTransactionOutputs()) {
+                addOpenWalletTransaction(txids, txo.getHash(), wallet.getTransactions().get(txo.getHash()));
+                if(txo.getSpentBy() != null) {
+                    addOpenWalletTransaction(txids, txo.getSpentBy().getHash(), wallet.getTransactions().get(txo.getSpentBy().getHash()));
+                }
+            }
+        }
+    }
+
+    private void addOpenWalletTransaction(Set<Sha256Hash> txids, Sha256Hash txid, BlockTransaction blockTransaction) {
+        if(blockTransaction != null && blockTransaction.getTransaction() != null && txids.add(txid)) {
+            openWalletTransactions.putIfAbsent(txid, blockTransaction.getTransaction());
+        }
+    }
+
+    private byte[] readRawTransaction(Sha256Hash txid) {
+        if(!Config.get().isPersistTransactionCache()) {
+            return null;
+        }
+
+        File txFile = new File(Storage.getTransactionCacheDir(), txid.toString());
+        if(!txFile.exists()) {
+            return null;
+        }
+
+        try {
+            byte[] rawTx = Files.readAllBytes(txFile.toPath());
+            //Content addressing means a damaged file can always be detected
+            if(!new Transaction(rawTx).getTxId().equals(txid)) {
+                throw new IOException("Cached transaction does not match txid");
+            }
+
+            return rawTx;
+        } catch(Exception e) {
+            log.warn("Discarding invalid cached transaction " + txid, e);
+            txFile.delete();
+            return null;
+        }
+    }
+
+    private void writeRawTransaction(Sha256Hash txid, byte[] rawTx) {
+        if(!Config.get().isPersistTransactionCache()) {
+            return;
+        }
+
+        File txFile = new File(Storage.getTransactionCacheDir(), txid.toString());
+        if(txFile.exists()) {
+            return;
+        }
+
+        try {
+            File tempFile = new File(txFile.getParentFile(), txFile.getName() + "." + Storage.TEMP_BACKUP_EXTENSION);
+            Files.write(tempFile.toPath(), rawTx);
+            Files.move(tempFile.toPath(), txFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            log.warn("Error writing cached transaction " + txid, e);
+        }
+    }
+
+    private static class CacheEntry {
+        private final byte[] rawTx;
+        private int height;
+        private Date date;
+        private Sha256Hash blockHash;
+
+        public CacheEntry(byte[] rawTx) {
+            this.rawTx = rawTx;
+        }
+    }
+}
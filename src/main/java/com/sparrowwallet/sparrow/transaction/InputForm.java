@@ -5,6 +5,7 @@ import com.sparrowwallet.drongo.protocol.TransactionOutput;
 import com.sparrowwallet.drongo.psbt.PSBTInput;
 import com.sparrowwallet.drongo.wallet.BlockTransaction;
 import com.sparrowwallet.sparrow.net.ElectrumServer;
+import com.sparrowwallet.sparrow.wallet.TxoIndex;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
 
@@ -48,7 +49,7 @@ public class InputForm extends IndexedTransactionForm {
 
     public boolean isWalletTxo() {
         TransactionInput txInput = getTransactionInput();
-        return getSigningWallet() != null && getSigningWallet().getWalletTxos().keySet().stream().anyMatch(ref -> ref.getHash().equals(txInput.getOutpoint().getHash()) && ref.getIndex() == txInput.getOutpoint().getIndex());
+        return getSigningWallet() != null && TxoIndex.get(getSigningWallet()).getWalletTxo(txInput.getOutpoint().getHash(), txInput.getOutpoint().getIndex()) != null;
     }
 
     @Override
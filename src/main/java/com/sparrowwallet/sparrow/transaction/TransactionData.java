@@ -8,6 +8,7 @@ import com.sparrowwallet.drongo.wallet.Keystore;
 import com.sparrowwallet.drongo.wallet.Wallet;
 import com.sparrowwallet.drongo.wallet.WalletNode;
 import com.sparrowwallet.sparrow.io.Storage;
+import com.sparrowwallet.sparrow.wallet.TxoIndex;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableMap;
@@ -161,8 +162,10 @@ public class TransactionData {
 
         Set<WalletNode> signingWalletNodes = new LinkedHashSet<>();
         for(TransactionInput txInput : transaction.getInputs()) {
-            Optional<WalletNode> optNode = getSigningWallet().getWalletTxos().entrySet().stream().filter(entry -> entry.getKey().getHash().equals(txInput.getOutpoint().getHash()) && entry.getKey().getIndex() == txInput.getOutpoint().getIndex()).map(Map.Entry::getValue).findFirst();
-            optNode.ifPresent(signingWalletNodes::add);
+            WalletNode node = TxoIndex.get(getSigningWallet()).getWalletNode(txInput.getOutpoint().getHash(), txInput.getOutpoint().getIndex());
+            if(node != null) {
+                signingWalletNodes.add(node);
+            }
         }
 
         for(TransactionOutput txOutput : transaction.getOutputs()) {
@@ -0,0 +1,289 @@
+package com.sparrowwallet.sparrow.wallet;
+
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.OutputGroup;
+import com.sparrowwallet.drongo.wallet.UtxoSelector;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Branch and bound UTXO selection as in Bitcoin Core, searching for an input set that avoids change with the least waste.
+ * The top levels of the search tree are split into fork join tasks that search their subtrees in parallel and share the best waste found as a bound.
+ * Candidates are copied into primitive arrays sorted by descending effective value so the inner loop does not touch the output groups.
+ * If the selecting thread is interrupted, the search is stopped and the best selection found so far is returned.
+ */
+public class ParallelBnBUtxoSelector implements UtxoSelector {
+    private static final ForkJoinPool SELECTION_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private static final long TOTAL_TRIES = 100000;
+    private static final int TRIES_BATCH = 1024;
+    private static final int MAX_SPLIT_DEPTH = 10;
+
+    private final long noInputsFee;
+    private final long costOfChange;
+    private final List<BlockTransactionHashIndex> utxoOrder;
+
+    public ParallelBnBUtxoSelector(long noInputsFee, long costOfChange) {
+        this(noInputsFee, costOfChange, null);
+    }
+
+    /**
+     * Creates a selector that orders the candidates according to a UTXO ordering that is expected to be by descending effective value, such as SpendableUtxoPool.getSortedUtxos.
+     * The candidates are only sorted if the ordering does not cover them or does not turn out to be descending.
+     */
+    public ParallelBnBUtxoSelector(long noInputsFee, long costOfChange, List<BlockTransactionHashIndex> utxoOrder) {
+        this.noInputsFee = noInputsFee;
+        this.costOfChange = costOfChange;
+        this.utxoOrder = utxoOrder;
+    }
+
+    @Override
+    public Collection<BlockTransactionHashIndex> select(long targetValue, Collection<OutputGroup> candidates) {
+        List<OutputGroup> utxoPool = new ArrayList<>();
+        for(OutputGroup outputGroup : candidates) {
+            if(outputGroup.getEffectiveValue() > 0) {
+                utxoPool.add(outputGroup);
+            }
+        }
+
+        List<OutputGroup> orderedPool = getOrderedPool(utxoPool);
+        if(orderedPool != null) {
+            utxoPool = orderedPool;
+        } else {
+            utxoPool.sort((a, b) -> Long.compare(b.getEffectiveValue(), a.getEffectiveValue()));
+        }
+
+        Search search = new Search(utxoPool, targetValue + noInputsFee, costOfChange, TOTAL_TRIES * SELECTION_POOL.getParallelism());
+        if(search.suffixValues[0] < search.target) {
+            return Collections.emptyList();
+        }
+
+        int splitDepth = Math.min(utxoPool.size(), Math.min(MAX_SPLIT_DEPTH, 32 - Integer.numberOfLeadingZeros(SELECTION_POOL.getParallelism() * 4)));
+        ForkJoinTask<Void> task = SELECTION_POOL.submit(new SearchTask(search, new int[0], 0, 0L, 0L, splitDepth));
+        try {
+            task.get();
+        } catch(InterruptedException e) {
+            //Stop the search and return the best selection found so far, as when TimeLimitedUtxoSelector reaches its time limit
+            search.stop();
+            task.quietlyJoin();
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+
+            throw new IllegalStateException("Error selecting UTXOs", e.getCause());
+        }
+
+        List<BlockTransactionHashIndex> selectedUtxos = new ArrayList<>();
+        int[] bestSelection = search.getBestSelection();
+        if(bestSelection != null) {
+            for(int index : bestSelection) {
+                selectedUtxos.addAll(utxoPool.get(index).getUtxos());
+            }
+        }
+
+        return selectedUtxos;
+    }
+
+    /**
+     * Orders single UTXO candidates by the provided UTXO ordering in linear time, returning null if the candidates must be sorted instead
+     */
+    private List<OutputGroup> getOrderedPool(List<OutputGroup> utxoPool) {
+        if(utxoOrder == null) {
+            return null;
+        }
+
+        Map<BlockTransactionHashIndex, OutputGroup> utxoGroups = new HashMap<>(utxoPool.size() * 2);
+        for(OutputGroup outputGroup : utxoPool) {
+            if(outputGroup.getUtxos().size() != 1) {
+                return null;
+            }
+            utxoGroups.put(outputGroup.getUtxos().get(0), outputGroup);
+        }
+
+        List<OutputGroup> orderedPool = new ArrayList<>(utxoPool.size());
+        for(BlockTransactionHashIndex utxo : utxoOrder) {
+            OutputGroup outputGroup = utxoGroups.get(utxo);
+            if(outputGroup != null) {
+                if(!orderedPool.isEmpty() && orderedPool.get(orderedPool.size() - 1).getEffectiveValue() < outputGroup.getEffectiveValue()) {
+                    return null;
+                }
+                orderedPool.add(outputGroup);
+            }
+        }
+
+        return orderedPool.size() == utxoPool.size() ? orderedPool : null;
+    }
+
+    private static final class Search {
+        private final long[] values;
+        private final long[] wastes;
+        private final long[] suffixValues;
+        private final long target;
+        private final long costOfChange;
+        private final boolean positiveWaste;
+        private final AtomicLong bestWaste = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong remainingTries;
+        private volatile boolean stopped;
+        private int[] bestSelection;
+
+        public Search(List<OutputGroup> utxoPool, long target, long costOfChange, long totalTries) {
+            int size = utxoPool.size();
+            this.values = new long[size];
+            this.wastes = new long[size];
+            this.suffixValues = new long[size + 1];
+            for(int i = 0; i < size; i++) {
+                OutputGroup outputGroup = utxoPool.get(i);
+                values[i] = outputGroup.getEffectiveValue();
+                wastes[i] = outputGroup.getFee() - outputGroup.getLongTermFee();
+            }
+            for(int i = size - 1; i >= 0; i--) {
+                suffixValues[i] = suffixValues[i + 1] + values[i];
+            }
+
+            this.target = target;
+            this.costOfChange = costOfChange;
+            //When spending now costs more than spending later, adding inputs only increases waste
+            this.positiveWaste = size > 0 && wastes[0] > 0;
+            this.remainingTries = new AtomicLong(totalTries);
+        }
+
+        public boolean shouldBacktrack(long currentValue, long availableValue, long currentWaste) {
+            return currentValue + availableValue < target || currentValue > target + costOfChange || (positiveWaste && currentWaste > bestWaste.get());
+        }
+
+        public synchronized void record(long waste, int[] selection, int selectionSize) {
+            if(waste < bestWaste.get() || bestSelection == null) {
+                bestSelection = Arrays.copyOf(selection, selectionSize);
+                bestWaste.set(waste);
+            }
+        }
+
+        public synchronized int[] getBestSelection() {
+            return bestSelection;
+        }
+
+        public boolean acquireTries() {
+            return !stopped && remainingTries.addAndGet(-TRIES_BATCH) + TRIES_BATCH > 0;
+        }
+
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    private static final class SearchTask extends RecursiveAction {
+        private final Search search;
+        private final int[] prefix;
+        private final int index;
+        private final long currentValue;
+        private final long currentWaste;
+        private final int splitDepth;
+
+        public SearchTask(Search search, int[] prefix, int index, long currentValue, long currentWaste, int splitDepth) {
+            this.search = search;
+            this.prefix = prefix;
+            this.index = index;
+            this.currentValue = currentValue;
+            this.currentWaste = currentWaste;
+            this.splitDepth = splitDepth;
+        }
+
+        @Override
+        protected void compute() {
+            if(search.shouldBacktrack(currentValue, search.suffixValues[index], currentWaste)) {
+                return;
+            }
+
+            if(currentValue >= search.target) {
+                search.record(currentWaste + currentValue - search.target, prefix, prefix.length);
+                return;
+            }
+
+            if(index < splitDepth) {
+                List<SearchTask> subtasks = new ArrayList<>(2);
+                //As in the sequential search, there is no need to include an output equivalent to the one just omitted
+                if(!isEquivalentToOmitted(index)) {
+                    int[] includePrefix = Arrays.copyOf(prefix, prefix.length + 1);
+                    includePrefix[prefix.length] = index;
+                    subtasks.add(new SearchTask(search, includePrefix, index + 1, currentValue + search.values[index], currentWaste + search.wastes[index], splitDepth));
+                }
+                subtasks.add(new SearchTask(search, prefix, index + 1, currentValue, currentWaste, splitDepth));
+                invokeAll(subtasks);
+            } else {
+                searchSubtree();
+            }
+        }
+
+        private boolean isEquivalentToOmitted(int utxoIndex) {
+            return utxoIndex > 0 && (prefix.length == 0 || prefix[prefix.length - 1] != utxoIndex - 1)
+                    && search.values[utxoIndex] == search.values[utxoIndex - 1] && search.wastes[utxoIndex] == search.wastes[utxoIndex - 1];
+        }
+
+        /**
+         * Depth first search of the subtree below the prefix, following Bitcoin Core's SelectCoinsBnB
+         */
+        private void searchSubtree() {
+            long[] values = search.values;
+            long[] wastes = search.wastes;
+            int[] selection = Arrays.copyOf(prefix, prefix.length + values.length - index);
+            int selectionSize = prefix.length;
+
+            int utxoIndex = index;
+            long value = currentValue;
+            long waste = currentWaste;
+            long availableValue = search.suffixValues[index];
+
+            int tries = 0;
+            while(true) {
+                if(tries-- == 0) {
+                    if(!search.acquireTries()) {
+                        return;
+                    }
+                    tries = TRIES_BATCH - 1;
+                }
+
+                boolean backtrack = false;
+                if(search.shouldBacktrack(value, availableValue, waste)) {
+                    backtrack = true;
+                } else if(value >= search.target) {
+                    if(waste + value - search.target <= search.bestWaste.get()) {
+                        search.record(waste + value - search.target, selection, selectionSize);
+                    }
+                    backtrack = true;
+                }
+
+                if(backtrack) {
+                    if(selectionSize == prefix.length) {
+                        return;
+                    }
+
+                    //Add omitted outputs back before trying the omission branch of the last included output
+                    for(utxoIndex--; utxoIndex > selection[selectionSize - 1]; utxoIndex--) {
+                        availableValue += values[utxoIndex];
+                    }
+
+                    value -= values[utxoIndex];
+                    waste -= wastes[utxoIndex];
+                    selectionSize--;
+                } else {
+                    availableValue -= values[utxoIndex];
+                    boolean previousOmitted = utxoIndex > 0 && (selectionSize == 0 || selection[selectionSize - 1] != utxoIndex - 1);
+                    if(!(previousOmitted && values[utxoIndex] == values[utxoIndex - 1] && wastes[utxoIndex] == wastes[utxoIndex - 1])) {
+                        selection[selectionSize++] = utxoIndex;
+                        value += values[utxoIndex];
+                        waste += wastes[utxoIndex];
+                    }
+                }
+
+                utxoIndex++;
+            }
+        }
+    }
+}
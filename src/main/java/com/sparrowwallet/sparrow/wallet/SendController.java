@@ -16,12 +16,15 @@ import com.sparrowwallet.sparrow.io.Config;
 import com.sparrowwallet.sparrow.net.ExchangeSource;
 import com.sparrowwallet.sparrow.net.ElectrumServer;
 import com.sparrowwallet.sparrow.net.FeeRatesSource;
-import com.sparrowwallet.sparrow.net.MempoolRateSize;
+import com.sparrowwallet.sparrow.net.MempoolHistogram;
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.beans.property.*;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.ListChangeListener;
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -29,6 +32,7 @@ import javafx.fxml.Initializable;
 import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.layout.StackPane;
+import javafx.util.Duration;
 import javafx.util.StringConverter;
 import org.controlsfx.glyphfont.Glyph;
 import org.controlsfx.validation.ValidationResult;
@@ -55,6 +59,10 @@ public class SendController extends WalletFormController implements Initializabl
 
     public static final double FALLBACK_FEE_RATE = 20000d / 1000;
 
+    //Coalesces slider and text changes so that coin selection only runs once input has paused
+    private static final Duration TRANSACTION_UPDATE_DELAY = Duration.millis(100);
+    private static final long BNB_TIME_LIMIT_MILLIS = 250;
+
     @FXML
     private TabPane paymentTabs;
 
@@ -185,6 +193,10 @@ public class SendController extends WalletFormController implements Initializabl
 
     private ValidationSupport validationSupport;
 
+    private PauseTransition transactionUpdateDelay;
+    private List<Payment> pendingTransactionPayments;
+    private CreateTransactionService createTransactionService;
+
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         EventManager.get().register(this);
@@ -275,10 +287,7 @@ public class SendController extends WalletFormController implements Initializabl
         mempoolSizeFeeRatesChart.managedProperty().bind(mempoolSizeFeeRatesChart.visibleProperty());
         mempoolSizeFeeRatesChart.visibleProperty().bind(blockTargetFeeRatesChart.visibleProperty().not());
         mempoolSizeFeeRatesChart.initialize();
-        Map<Date, Set<MempoolRateSize>> mempoolHistogram = getMempoolHistogram();
-        if(mempoolHistogram != null) {
-            mempoolSizeFeeRatesChart.update(mempoolHistogram);
-        }
+        mempoolSizeFeeRatesChart.update(getMempoolHistogram());
 
         FeeRatesSelection feeRatesSelection = Config.get().getFeeRatesSelection();
         feeRatesSelection = (feeRatesSelection == null ? FeeRatesSelection.MEMPOOL_SIZE : feeRatesSelection);
@@ -470,7 +479,24 @@ public class SendController extends WalletFormController implements Initializabl
         }
     }
 
+    /**
+     * Schedules the transaction to be recreated once changes have paused. Coin selection runs in the background, and any selection still running for earlier input is abandoned immediately.
+     */
     public void updateTransaction(List<Payment> transactionPayments) {
+        pendingTransactionPayments = transactionPayments;
+        createButton.setDisable(true);
+        cancelCreateTransaction();
+        if(transactionUpdateDelay == null) {
+            transactionUpdateDelay = new PauseTransition(TRANSACTION_UPDATE_DELAY);
+            transactionUpdateDelay.setOnFinished(event -> createTransaction(pendingTransactionPayments));
+        }
+
+        transactionUpdateDelay.playFromStart();
+    }
+
+    private void createTransaction(List<Payment> transactionPayments) {
+        cancelCreateTransaction();
+
         try {
             List<Payment> payments = transactionPayments != null ? transactionPayments : getPayments();
             if(!userFeeSet.get() || (getFeeValueSats() != null && getFeeValueSats() > 0)) {
@@ -480,21 +506,62 @@ public class SendController extends WalletFormController implements Initializabl
                 boolean groupByAddress = Config.get().isGroupByAddress();
                 boolean includeMempoolChange = Config.get().isIncludeMempoolChange();
                 boolean includeMempoolInputs = includeMempoolInputsProperty.get();
-                WalletTransaction walletTransaction = wallet.createWalletTransaction(getUtxoSelectors(), getUtxoFilters(), payments, getFeeRate(), getMinimumFeeRate(), userFee, currentBlockHeight, groupByAddress, includeMempoolChange, includeMempoolInputs);
-                walletTransactionProperty.setValue(walletTransaction);
-                insufficientInputsProperty.set(false);
 
+                //The spendable UTXOs bound the amount that can be sent, so selection can be skipped for payments that exceed them
+                if(utxoSelectorProperty.get() == null && payments.stream().mapToLong(Payment::getAmount).sum() > getWalletForm().getSpendableUtxoPool().getValue()) {
+                    insufficientInputsProperty.set(true);
+                    walletTransactionProperty.setValue(null);
+                    return;
+                }
+
+                CreateTransactionService service = new CreateTransactionService(wallet, getUtxoSelectors(), getUtxoFilters(), payments, getFeeRate(), getMinimumFeeRate(), userFee, currentBlockHeight, groupByAddress, includeMempoolChange, includeMempoolInputs);
+                service.setOnSucceeded(event -> {
+                    if(service == createTransactionService) {
+                        createTransactionService = null;
+                        walletTransactionProperty.setValue(service.getValue());
+                        insufficientInputsProperty.set(false);
+                    }
+                });
+                service.setOnFailed(event -> {
+                    if(service == createTransactionService) {
+                        createTransactionService = null;
+                        Throwable exception = service.getException();
+                        if(exception instanceof InsufficientFundsException) {
+                            insufficientInputsProperty.set(true);
+                        } else if(!(exception instanceof InvalidAddressException || exception instanceof IllegalStateException)) {
+                            log.error("Error creating transaction", exception);
+                        }
+
+                        walletTransactionProperty.setValue(null);
+                    }
+                });
+
+                createTransactionService = service;
+                service.start();
                 return;
             }
         } catch(InvalidAddressException | IllegalStateException e) {
             //ignore
-        } catch(InsufficientFundsException e) {
-            insufficientInputsProperty.set(true);
         }
 
         walletTransactionProperty.setValue(null);
     }
 
+    private void cancelTransactionUpdate() {
+        if(transactionUpdateDelay != null) {
+            transactionUpdateDelay.stop();
+        }
+
+        cancelCreateTransaction();
+    }
+
+    private void cancelCreateTransaction() {
+        if(createTransactionService != null) {
+            createTransactionService.cancel();
+            createTransactionService = null;
+        }
+    }
+
     private List<UtxoSelector> getUtxoSelectors() throws InvalidAddressException {
         if(utxoSelectorProperty.get() != null) {
             return List.of(utxoSelectorProperty.get());
@@ -504,7 +571,7 @@ public class SendController extends WalletFormController implements Initializabl
         long noInputsFee = wallet.getNoInputsFee(getPayments(), getFeeRate());
         long costOfChange = wallet.getCostOfChange(getFeeRate(), getMinimumFeeRate());
 
-        return List.of(new BnBUtxoSelector(noInputsFee, costOfChange), new KnapsackUtxoSelector(noInputsFee));
+        return List.of(new TimeLimitedUtxoSelector(new ParallelBnBUtxoSelector(noInputsFee, costOfChange, getWalletForm().getSpendableUtxoPool().getSortedUtxos()), BNB_TIME_LIMIT_MILLIS), new KnapsackUtxoSelector(noInputsFee));
     }
 
     private List<UtxoFilter> getUtxoFilters() {
@@ -626,7 +693,7 @@ public class SendController extends WalletFormController implements Initializabl
         return Math.max(minRate, Transaction.DUST_RELAY_TX_FEE);
     }
 
-    private Map<Date, Set<MempoolRateSize>> getMempoolHistogram() {
+    private MempoolHistogram getMempoolHistogram() {
         return AppServices.getMempoolHistogram();
     }
 
@@ -790,6 +857,7 @@ public class SendController extends WalletFormController implements Initializabl
         utxoSelectorProperty.setValue(null);
         utxoFilterProperty.setValue(null);
         includeMempoolInputsProperty.set(false);
+        cancelTransactionUpdate();
         walletTransactionProperty.setValue(null);
         createdWalletTransactionProperty.set(null);
 
@@ -1032,4 +1100,42 @@ public class SendController extends WalletFormController implements Initializabl
             }
         }
     }
+
+    private static class CreateTransactionService extends Service<WalletTransaction> {
+        private final Wallet wallet;
+        private final List<UtxoSelector> utxoSelectors;
+        private final List<UtxoFilter> utxoFilters;
+        private final List<Payment> payments;
+        private final Double feeRate;
+        private final Double minimumFeeRate;
+        private final Long userFee;
+        private final Integer currentBlockHeight;
+        private final boolean groupByAddress;
+        private final boolean includeMempoolChange;
+        private final boolean includeMempoolInputs;
+
+        public CreateTransactionService(Wallet wallet, List<UtxoSelector> utxoSelectors, List<UtxoFilter> utxoFilters, List<Payment> payments, Double feeRate, Double minimumFeeRate, Long userFee, Integer currentBlockHeight,
+                                        boolean groupByAddress, boolean includeMempoolChange, boolean includeMempoolInputs) {
+            this.wallet = wallet;
+            this.utxoSelectors = utxoSelectors;
+            this.utxoFilters = utxoFilters;
+            this.payments = payments;
+            this.feeRate = feeRate;
+            this.minimumFeeRate = minimumFeeRate;
+            this.userFee = userFee;
+            this.currentBlockHeight = currentBlockHeight;
+            this.groupByAddress = groupByAddress;
+            this.includeMempoolChange = includeMempoolChange;
+            this.includeMempoolInputs = includeMempoolInputs;
+        }
+
+        @Override
+        protected Task<WalletTransaction> createTask() {
+            return new Task<>() {
+                protected WalletTransaction call() throws InsufficientFundsException {
+                    return wallet.createWalletTransaction(utxoSelectors, utxoFilters, payments, feeRate, minimumFeeRate, userFee, currentBlockHeight, groupByAddress, includeMempoolChange, includeMempoolInputs);
+                }
+            };
+        }
+    }
 }
@@ -46,7 +46,7 @@ public class SettingsWalletForm extends WalletForm {
         if(refreshAll) {
             pastWallet = wallet.copy();
             save(); //Save here for the temp backup in case password has been changed
-            getStorage().backupTempWallet();
+            getStorage().backupTempWallet(wallet);
             walletCopy.clearNodes();
         }
 
@@ -0,0 +1,103 @@
+package com.sparrowwallet.sparrow.wallet;
+
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.Status;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+
+import java.util.*;
+
+/**
+ * The unfrozen UTXOs of a wallet, maintained incrementally as node history and UTXO status change rather than recalculated from the node tree.
+ * The UTXOs are ordered by descending value on request and the ordering is kept until the pool changes. As the inputs of a wallet share a script type,
+ * this is also the ordering by effective value at any fee rate.
+ */
+public class SpendableUtxoPool {
+    private final Wallet wallet;
+    private final Map<BlockTransactionHashIndex, WalletNode> utxos = new HashMap<>();
+    private final Map<WalletNode, Set<BlockTransactionHashIndex>> nodeUtxos = new HashMap<>();
+    private long value;
+    private List<BlockTransactionHashIndex> sortedUtxos;
+
+    public SpendableUtxoPool(Wallet wallet) {
+        this.wallet = wallet;
+        for(Map.Entry<BlockTransactionHashIndex, WalletNode> entry : wallet.getWalletUtxos().entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Replaces the UTXOs of the address nodes whose history has changed
+     */
+    public void updateHistory(Collection<WalletNode> historyChangedNodes) {
+        for(WalletNode node : historyChangedNodes) {
+            Set<BlockTransactionHashIndex> previousUtxos = nodeUtxos.remove(node);
+            if(previousUtxos != null) {
+                for(BlockTransactionHashIndex utxo : previousUtxos) {
+                    utxos.remove(utxo);
+                    value -= utxo.getValue();
+                }
+            }
+        }
+
+        for(Map.Entry<BlockTransactionHashIndex, WalletNode> entry : TxoIndex.get(wallet).getWalletUtxos(historyChangedNodes).entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+
+        sortedUtxos = null;
+    }
+
+    /**
+     * Adds or removes a UTXO of the wallet according to whether it is now frozen
+     */
+    public void updateStatus(BlockTransactionHashIndex utxo) {
+        WalletNode node = TxoIndex.get(wallet).getWalletNode(utxo.getHash(), utxo.getIndex());
+        BlockTransactionHashIndex walletUtxo = TxoIndex.get(wallet).getWalletTxo(utxo.getHash(), utxo.getIndex());
+        if(node == null || walletUtxo.getSpentBy() != null) {
+            return;
+        }
+
+        if(utxos.containsKey(walletUtxo) && isFrozen(walletUtxo)) {
+            utxos.remove(walletUtxo);
+            nodeUtxos.get(node).remove(walletUtxo);
+            value -= walletUtxo.getValue();
+        } else if(!utxos.containsKey(walletUtxo)) {
+            add(walletUtxo, node);
+        }
+
+        sortedUtxos = null;
+    }
+
+    private void add(BlockTransactionHashIndex utxo, WalletNode node) {
+        if(!isFrozen(utxo)) {
+            utxos.put(utxo, node);
+            nodeUtxos.computeIfAbsent(node, k -> new HashSet<>()).add(utxo);
+            value += utxo.getValue();
+        }
+    }
+
+    private static boolean isFrozen(BlockTransactionHashIndex utxo) {
+        return utxo.getStatus() == Status.FROZEN;
+    }
+
+    public Map<BlockTransactionHashIndex, WalletNode> getUtxos() {
+        return Collections.unmodifiableMap(utxos);
+    }
+
+    public List<BlockTransactionHashIndex> getSortedUtxos() {
+        if(sortedUtxos == null) {
+            List<BlockTransactionHashIndex> sorted = new ArrayList<>(utxos.keySet());
+            sorted.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+            sortedUtxos = Collections.unmodifiableList(sorted);
+        }
+
+        return sortedUtxos;
+    }
+
+    /**
+     * The total value of the spendable UTXOs, an upper bound on the amount that can be sent before fees
+     */
+    public long getValue() {
+        return value;
+    }
+}
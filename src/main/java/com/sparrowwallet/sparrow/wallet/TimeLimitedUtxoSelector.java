@@ -0,0 +1,105 @@
+package com.sparrowwallet.sparrow.wallet;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.OutputGroup;
+import com.sparrowwallet.drongo.wallet.UtxoSelector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.*;
+
+/**
+ * Limits the time spent by a UTXO selector. Once the time limit has passed the selector is interrupted, and the selection it then returns is used,
+ * such as the best selection ParallelBnBUtxoSelector has found so far. A selector that does not return promptly once interrupted is abandoned,
+ * and no selection is returned so that the next selector is tried.
+ */
+public class TimeLimitedUtxoSelector implements UtxoSelector {
+    private static final Logger log = LoggerFactory.getLogger(TimeLimitedUtxoSelector.class);
+
+    private static final long INTERRUPTED_RETURN_MILLIS = 100;
+
+    private static final ExecutorService selectionExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("UtxoSelectionThread-%d").build());
+
+    private final UtxoSelector utxoSelector;
+    private final long timeLimitMillis;
+
+    public TimeLimitedUtxoSelector(UtxoSelector utxoSelector, long timeLimitMillis) {
+        this.utxoSelector = utxoSelector;
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    @Override
+    public Collection<BlockTransactionHashIndex> select(long targetValue, Collection<OutputGroup> candidates) {
+        Selection selection = new Selection(targetValue, candidates);
+        Future<Collection<BlockTransactionHashIndex>> future = selectionExecutor.submit(selection);
+        try {
+            try {
+                return future.get(timeLimitMillis, TimeUnit.MILLISECONDS);
+            } catch(TimeoutException e) {
+                selection.interrupt();
+                Collection<BlockTransactionHashIndex> selectedUtxos = future.get(INTERRUPTED_RETURN_MILLIS, TimeUnit.MILLISECONDS);
+                log.debug(utxoSelector.getClass().getSimpleName() + " did not complete within " + timeLimitMillis + "ms, using the selection returned when interrupted");
+                return selectedUtxos;
+            }
+        } catch(TimeoutException e) {
+            future.cancel(true);
+            log.debug(utxoSelector.getClass().getSimpleName() + " did not return within " + INTERRUPTED_RETURN_MILLIS + "ms of being interrupted");
+            return Collections.emptyList();
+        } catch(InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("UTXO selection was interrupted", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+
+            throw new IllegalStateException("Error selecting UTXOs", e.getCause());
+        }
+    }
+
+    public UtxoSelector getUtxoSelector() {
+        return utxoSelector;
+    }
+
+    /**
+     * Runs the wrapped selector, allowing it to be interrupted without cancelling its future so that the selection it returns is still received
+     */
+    private class Selection implements Callable<Collection<BlockTransactionHashIndex>> {
+        private final long targetValue;
+        private final Collection<OutputGroup> candidates;
+        private Thread thread;
+        private boolean complete;
+
+        public Selection(long targetValue, Collection<OutputGroup> candidates) {
+            this.targetValue = targetValue;
+            this.candidates = candidates;
+        }
+
+        @Override
+        public Collection<BlockTransactionHashIndex> call() {
+            synchronized(this) {
+                thread = Thread.currentThread();
+            }
+
+            try {
+                return utxoSelector.select(targetValue, candidates);
+            } finally {
+                synchronized(this) {
+                    complete = true;
+                    //Clear any interrupt so it does not carry over to the next selection run on this pooled thread
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        public synchronized void interrupt() {
+            if(thread != null && !complete) {
+                thread.interrupt();
+            }
+        }
+    }
+}
@@ -6,10 +6,8 @@ import com.sparrowwallet.drongo.protocol.TransactionInput;
 import com.sparrowwallet.drongo.protocol.TransactionOutput;
 import com.sparrowwallet.drongo.wallet.*;
 import com.sparrowwallet.sparrow.EventManager;
-import com.sparrowwallet.sparrow.WalletTabData;
 import com.sparrowwallet.sparrow.event.WalletBlockHeightChangedEvent;
 import com.sparrowwallet.sparrow.event.WalletEntryLabelChangedEvent;
-import com.sparrowwallet.sparrow.event.WalletTabsClosedEvent;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.IntegerPropertyBase;
 import javafx.beans.property.LongProperty;
@@ -36,7 +34,7 @@ public class TransactionEntry extends Entry implements Comparable<TransactionEnt
 
         setConfirmations(calculateConfirmations());
         if(isFullyConfirming()) {
-            EventManager.get().register(this);
+            EventManager.get(wallet).register(this);
         }
     }
 
@@ -84,23 +82,30 @@ public class TransactionEntry extends Entry implements Comparable<TransactionEnt
 
     public boolean isComplete() {
         int validEntries = 0;
-        Map<BlockTransactionHashIndex, WalletNode> walletTxos = getWallet().getWalletTxos();
+        TxoIndex txoIndex = TxoIndex.get(getWallet());
+        Set<BlockTransactionHashIndex> inputChildren = new HashSet<>();
+        Set<BlockTransactionHashIndex> outputChildren = new HashSet<>();
+        for(Entry entry : getChildren()) {
+            HashIndexEntry hashIndexEntry = (HashIndexEntry)entry;
+            (hashIndexEntry.getType().equals(HashIndexEntry.Type.INPUT) ? inputChildren : outputChildren).add(hashIndexEntry.getHashIndex());
+        }
+
         for(TransactionInput txInput : blockTransaction.getTransaction().getInputs()) {
-            Optional<BlockTransactionHashIndex> optRef = walletTxos.keySet().stream().filter(ref -> ref.getHash().equals(txInput.getOutpoint().getHash()) && ref.getIndex() == txInput.getOutpoint().getIndex()).findFirst();
-            if(optRef.isPresent()) {
+            BlockTransactionHashIndex ref = txoIndex.getWalletTxo(txInput.getOutpoint().getHash(), txInput.getOutpoint().getIndex());
+            if(ref != null) {
                 validEntries++;
-                if(getChildren().stream().noneMatch(entry -> ((HashIndexEntry)entry).getHashIndex().equals(optRef.get().getSpentBy()) && ((HashIndexEntry)entry).getType().equals(HashIndexEntry.Type.INPUT))) {
-                    log.warn("TransactionEntry " + blockTransaction.getHash() + " for wallet " + getWallet().getName() + " missing child for input " + optRef.get().getSpentBy() + " on output " + optRef.get());
+                if(!inputChildren.contains(ref.getSpentBy())) {
+                    log.warn("TransactionEntry " + blockTransaction.getHash() + " for wallet " + getWallet().getName() + " missing child for input " + ref.getSpentBy() + " on output " + ref);
                     return false;
                 }
             }
         }
         for(TransactionOutput txOutput : blockTransaction.getTransaction().getOutputs()) {
-            Optional<BlockTransactionHashIndex> optRef = walletTxos.keySet().stream().filter(ref -> ref.getHash().equals(txOutput.getHash()) && ref.getIndex() == txOutput.getIndex()).findFirst();
-            if(optRef.isPresent()) {
+            BlockTransactionHashIndex ref = txoIndex.getWalletTxo(txOutput.getHash(), txOutput.getIndex());
+            if(ref != null) {
                 validEntries++;
-                if(getChildren().stream().noneMatch(entry -> ((HashIndexEntry)entry).getHashIndex().equals(optRef.get()) && ((HashIndexEntry)entry).getType().equals(HashIndexEntry.Type.OUTPUT))) {
-                    log.warn("TransactionEntry " + blockTransaction.getHash() + " for wallet " + getWallet().getName() + " missing child for output " + optRef.get());
+                if(!outputChildren.contains(ref)) {
+                    log.warn("TransactionEntry " + blockTransaction.getHash() + " for wallet " + getWallet().getName() + " missing child for output " + ref);
                     return false;
                 }
             }
@@ -224,27 +229,25 @@ public class TransactionEntry extends Entry implements Comparable<TransactionEnt
         return balance;
     }
 
-    @Subscribe
-    public void blockHeightChanged(WalletBlockHeightChangedEvent event) {
-        if(getWallet().equals(event.getWallet())) {
-            setConfirmations(calculateConfirmations());
+    /**
+     * The total value of the mempool transactions up to and including this one, carried forward by WalletTransactionsEntry as the balances are recalculated
+     */
+    private long mempoolBalance;
 
-            if(!isFullyConfirming()) {
-                EventManager.get().unregister(this);
-            }
-        }
+    long getMempoolBalance() {
+        return mempoolBalance;
+    }
+
+    void setMempoolBalance(long mempoolBalance) {
+        this.mempoolBalance = mempoolBalance;
     }
 
     @Subscribe
-    public void walletTabsClosed(WalletTabsClosedEvent event) {
-        for(WalletTabData tabData : event.getClosedWalletTabData()) {
-            if(tabData.getWalletForm().getWallet() == getWallet()) {
-                try {
-                    EventManager.get().unregister(this);
-                } catch(IllegalArgumentException e) {
-                    //Safe to ignore
-                }
-            }
+    public void blockHeightChanged(WalletBlockHeightChangedEvent event) {
+        setConfirmations(calculateConfirmations());
+
+        if(!isFullyConfirming()) {
+            EventManager.get(getWallet()).unregister(this);
         }
     }
 }
@@ -153,7 +153,7 @@ public class TransactionsController extends WalletFormController implements Init
             WalletTransactionsEntry walletTransactionsEntry = getWalletForm().getWalletTransactionsEntry();
 
             //Will automatically update transactionsTable transactions and recalculate balances
-            walletTransactionsEntry.updateTransactions();
+            walletTransactionsEntry.updateTransactions(event.getHistoryChangedNodes());
 
             transactionsTable.updateHistory(event.getHistoryChangedNodes());
             balance.setValue(walletTransactionsEntry.getBalance());
@@ -166,8 +166,8 @@ public class TransactionsController extends WalletFormController implements Init
     @Subscribe
     public void walletEntryLabelChanged(WalletEntryLabelChangedEvent event) {
         if(event.getWallet().equals(walletForm.getWallet())) {
+            //Labels are not charted, so the balance chart does not need to be updated
             transactionsTable.updateLabel(event.getEntry());
-            balanceChart.update(getWalletForm().getWalletTransactionsEntry());
         }
     }
 
@@ -0,0 +1,129 @@
+package com.sparrowwallet.sparrow.wallet;
+
+import com.google.common.collect.MapMaker;
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+
+import java.util.*;
+
+/**
+ * Index from outpoint to the wallet's transaction outputs (TXOs) and the address nodes that hold them.
+ * Avoids rebuilding Wallet.getWalletTxos and scanning it for every transaction input or output that needs to be matched against the wallet.
+ * The index is built on first use and updated by WalletForm for each node whose transaction outputs change as history is calculated.
+ * As for ScriptHashIndex, indexes are held per wallet instance, and should be invalidated when the wallet history is cleared, the wallet settings change
+ * or the wallet is closed. The indexed address nodes may reference their wallet, so an index is not released with its wallet until invalidated.
+ */
+public class TxoIndex {
+    private static final List<KeyPurpose> KEY_PURPOSES = List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE);
+
+    //Weak keys are compared by identity, so wallet copies are indexed separately
+    private static final Map<Wallet, TxoIndex> walletIndexes = new MapMaker().weakKeys().makeMap();
+
+    private final Map<Outpoint, BlockTransactionHashIndex> txos = new HashMap<>();
+    private final Map<Outpoint, WalletNode> txoNodes = new HashMap<>();
+    private final Map<WalletNode, Set<Outpoint>> nodeOutpoints = new HashMap<>();
+
+    private TxoIndex(Wallet wallet) {
+        for(KeyPurpose keyPurpose : KEY_PURPOSES) {
+            for(WalletNode addressNode : wallet.getNode(keyPurpose).getChildren()) {
+                update(addressNode);
+            }
+        }
+    }
+
+    public static TxoIndex get(Wallet wallet) {
+        return walletIndexes.computeIfAbsent(wallet, TxoIndex::new);
+    }
+
+    public static void invalidate(Wallet wallet) {
+        if(wallet != null) {
+            walletIndexes.remove(wallet);
+        }
+    }
+
+    /**
+     * Returns the wallet TXO created at the given outpoint, or null if the outpoint does not pay to this wallet
+     */
+    public synchronized BlockTransactionHashIndex getWalletTxo(Sha256Hash hash, long index) {
+        return txos.get(new Outpoint(hash, index));
+    }
+
+    /**
+     * Returns the address node holding the wallet TXO created at the given outpoint, or null if the outpoint does not pay to this wallet
+     */
+    public synchronized WalletNode getWalletNode(Sha256Hash hash, long index) {
+        return txoNodes.get(new Outpoint(hash, index));
+    }
+
+    /**
+     * Returns the unspent wallet TXOs held by the provided address nodes
+     */
+    public synchronized Map<BlockTransactionHashIndex, WalletNode> getWalletUtxos(Collection<WalletNode> nodes) {
+        Map<BlockTransactionHashIndex, WalletNode> walletUtxos = new TreeMap<>();
+        for(WalletNode node : nodes) {
+            for(Outpoint outpoint : nodeOutpoints.getOrDefault(node, Collections.emptySet())) {
+                BlockTransactionHashIndex txo = txos.get(outpoint);
+                if(txo.getSpentBy() == null) {
+                    walletUtxos.put(txo, node);
+                }
+            }
+        }
+
+        return walletUtxos;
+    }
+
+    /**
+     * Reindexes the TXOs of an address node, which must be called whenever the node's transaction outputs are updated
+     */
+    public synchronized void update(WalletNode node) {
+        Set<Outpoint> previousOutpoints = nodeOutpoints.remove(node);
+        if(previousOutpoints != null) {
+            for(Outpoint outpoint : previousOutpoints) {
+                txos.remove(outpoint);
+                txoNodes.remove(outpoint);
+            }
+        }
+
+        Set<Outpoint> outpoints = new HashSet<>();
+        for(BlockTransactionHashIndex txo : node.getTransactionOutputs()) {
+            Outpoint outpoint = new Outpoint(txo.getHash(), txo.getIndex());
+            outpoints.add(outpoint);
+            txos.put(outpoint, txo);
+            txoNodes.put(outpoint, node);
+        }
+
+        if(!outpoints.isEmpty()) {
+            nodeOutpoints.put(node, outpoints);
+        }
+    }
+
+    private static final class Outpoint {
+        private final Sha256Hash hash;
+        private final long index;
+
+        public Outpoint(Sha256Hash hash, long index) {
+            this.hash = hash;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Outpoint outpoint = (Outpoint)o;
+            return index == outpoint.index && hash.equals(outpoint.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(hash, index);
+        }
+    }
+}
@@ -106,7 +106,7 @@ public class UtxosController extends WalletFormController implements Initializab
             WalletUtxosEntry walletUtxosEntry = getWalletForm().getWalletUtxosEntry();
 
             //Will automatically update utxosTable
-            walletUtxosEntry.updateUtxos();
+            walletUtxosEntry.updateUtxos(event.getHistoryChangedNodes());
 
             utxosTable.updateHistory(event.getHistoryChangedNodes());
             utxosChart.update(walletUtxosEntry);
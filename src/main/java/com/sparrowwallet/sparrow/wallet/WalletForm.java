@@ -12,7 +12,9 @@ import com.sparrowwallet.sparrow.WalletTabData;
 import com.sparrowwallet.sparrow.event.*;
 import com.sparrowwallet.sparrow.io.Config;
 import com.sparrowwallet.sparrow.net.ElectrumServer;
+import com.sparrowwallet.sparrow.net.ScriptHashIndex;
 import com.sparrowwallet.sparrow.io.Storage;
+import com.sparrowwallet.sparrow.io.WalletSaveScheduler;
 import com.sparrowwallet.sparrow.net.ServerType;
 import javafx.application.Platform;
 import org.slf4j.Logger;
@@ -26,11 +28,13 @@ public class WalletForm {
     private static final Logger log = LoggerFactory.getLogger(WalletForm.class);
 
     private final Storage storage;
+    private final WalletSaveScheduler saveScheduler;
     protected Wallet wallet;
     private Wallet savedPastWallet;
 
     private WalletTransactionsEntry walletTransactionsEntry;
     private WalletUtxosEntry walletUtxosEntry;
+    private SpendableUtxoPool spendableUtxoPool;
     private final List<NodeEntry> accountEntries = new ArrayList<>();
     private final List<Set<WalletNode>> walletTransactionNodes = new ArrayList<>();
 
@@ -40,6 +44,7 @@ public class WalletForm {
 
     public WalletForm(Storage storage, Wallet currentWallet, Wallet backupWallet, boolean refreshHistory) {
         this.storage = storage;
+        this.saveScheduler = new WalletSaveScheduler(storage);
         this.wallet = currentWallet;
 
         //Unencrypted wallets load before isConnected is true, waiting for the ConnectionEvent to refresh history - save the backup for this event
@@ -71,19 +76,21 @@ public class WalletForm {
     }
 
     public void save() throws IOException {
+        saveScheduler.cancel();
         storage.storeWallet(wallet);
     }
 
     public void saveAndRefresh() throws IOException {
         Wallet pastWallet = wallet.copy();
-        storage.backupTempWallet();
+        storage.backupTempWallet(wallet);
         wallet.clearHistory();
+        TxoIndex.invalidate(wallet);
         save();
         refreshHistory(AppServices.getCurrentBlockHeight(), pastWallet);
     }
 
     public void saveBackup() throws IOException {
-        storage.backupWallet();
+        storage.backupWallet(wallet);
     }
 
     public void deleteBackups() {
@@ -147,6 +154,11 @@ public class WalletForm {
         historyChangedNodes.addAll(getHistoryChangedNodes(previousWallet.getNode(KeyPurpose.RECEIVE).getChildren(), wallet.getNode(KeyPurpose.RECEIVE).getChildren()));
         historyChangedNodes.addAll(getHistoryChangedNodes(previousWallet.getNode(KeyPurpose.CHANGE).getChildren(), wallet.getNode(KeyPurpose.CHANGE).getChildren()));
 
+        TxoIndex txoIndex = TxoIndex.get(wallet);
+        for(WalletNode node : historyChangedNodes) {
+            txoIndex.update(node);
+        }
+
         boolean changed = labelsChanged;
         if(!historyChangedNodes.isEmpty()) {
             Platform.runLater(() -> EventManager.get().post(new WalletHistoryChangedEvent(wallet, storage, historyChangedNodes)));
@@ -154,7 +166,11 @@ public class WalletForm {
         }
 
         if(blockHeight != null && !blockHeight.equals(previousWallet.getStoredBlockHeight())) {
-            Platform.runLater(() -> EventManager.get().post(new WalletBlockHeightChangedEvent(wallet, blockHeight)));
+            Platform.runLater(() -> {
+                WalletBlockHeightChangedEvent blockHeightChangedEvent = new WalletBlockHeightChangedEvent(wallet, blockHeight);
+                EventManager.get(wallet).post(blockHeightChangedEvent);
+                EventManager.get().post(blockHeightChangedEvent);
+            });
             changed = true;
         }
 
@@ -245,6 +261,14 @@ public class WalletForm {
         return walletUtxosEntry;
     }
 
+    public SpendableUtxoPool getSpendableUtxoPool() {
+        if(spendableUtxoPool == null) {
+            spendableUtxoPool = new SpendableUtxoPool(wallet);
+        }
+
+        return spendableUtxoPool;
+    }
+
     @Subscribe
     public void walletDataChanged(WalletDataChangedEvent event) {
         if(event.getWallet().equals(wallet)) {
@@ -253,18 +277,19 @@ public class WalletForm {
     }
 
     private void backgroundSaveWallet() {
-        try {
-            save();
-        } catch (IOException e) {
-            //Background save failed
-            log.error("Background wallet save failed", e);
-        }
+        saveScheduler.scheduleSave(wallet);
     }
 
     @Subscribe
     public void walletSettingsChanged(WalletSettingsChangedEvent event) {
         if(event.getWalletFile().equals(storage.getWalletFile())) {
+            ScriptHashIndex.invalidate(wallet);
+            TxoIndex.invalidate(wallet);
+            EventManager.remove(wallet);
             wallet = event.getWallet();
+            ScriptHashIndex.invalidate(wallet);
+            TxoIndex.invalidate(wallet);
+            spendableUtxoPool = null;
 
             if(event instanceof WalletAddressesChangedEvent) {
                 walletTransactionsEntry = null;
@@ -307,10 +332,28 @@ public class WalletForm {
         }
     }
 
+    @Subscribe
+    public void walletHistoryChanged(WalletHistoryChangedEvent event) {
+        if(event.getWallet().equals(wallet) && spendableUtxoPool != null) {
+            spendableUtxoPool.updateHistory(event.getHistoryChangedNodes());
+        }
+    }
+
+    @Subscribe
+    public void walletUtxoStatusChanged(WalletUtxoStatusChangedEvent event) {
+        if(event.getWallet().equals(wallet) && spendableUtxoPool != null) {
+            spendableUtxoPool.updateStatus(event.getUtxo());
+        }
+    }
+
     @Subscribe
     public void walletTabsClosed(WalletTabsClosedEvent event) {
         for(WalletTabData tabData : event.getClosedWalletTabData()) {
             if(tabData.getWalletForm() == this) {
+                saveScheduler.flush();
+                ScriptHashIndex.invalidate(wallet);
+                TxoIndex.invalidate(wallet);
+                EventManager.remove(wallet);
                 EventManager.get().unregister(this);
             }
         }
@@ -1,6 +1,7 @@
 package com.sparrowwallet.sparrow.wallet;
 
 import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
 import com.sparrowwallet.drongo.wallet.BlockTransaction;
 import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
 import com.sparrowwallet.drongo.wallet.Wallet;
@@ -17,10 +18,28 @@ import java.util.stream.Collectors;
 
 public class WalletTransactionsEntry extends Entry {
     private static final Logger log = LoggerFactory.getLogger(WalletTransactionsEntry.class);
+    private static final List<KeyPurpose> KEY_PURPOSES = List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE);
+
+    //Indexes of the transactions referenced by each address node and the transaction entries by txid, allowing only the transactions of nodes with changed history to be updated
+    private final Map<WalletNode, Set<Sha256Hash>> nodeTransactions = new HashMap<>();
+    private final Map<Sha256Hash, Set<WalletNode>> transactionNodes = new HashMap<>();
+    private final Map<Sha256Hash, TransactionEntry> transactionEntries = new HashMap<>();
+    private final Set<Sha256Hash> incompleteTransactions = new HashSet<>();
 
     public WalletTransactionsEntry(Wallet wallet) {
         super(wallet, wallet.getName(), getWalletTransactions(wallet).stream().map(WalletTransaction::getTransactionEntry).collect(Collectors.toList()));
         calculateBalances();
+
+        for(Entry entry : getChildren()) {
+            TransactionEntry transactionEntry = (TransactionEntry)entry;
+            transactionEntries.put(transactionEntry.getBlockTransaction().getHash(), transactionEntry);
+        }
+
+        for(KeyPurpose keyPurpose : KEY_PURPOSES) {
+            for(WalletNode addressNode : wallet.getNode(keyPurpose).getChildren()) {
+                indexTransactions(addressNode);
+            }
+        }
     }
 
     @Override
@@ -29,92 +48,187 @@ public class WalletTransactionsEntry extends Entry {
     }
 
     protected void calculateBalances() {
-        long balance = 0L;
-        long mempoolBalance = 0L;
-
         //Note transaction entries must be in ascending order. This sorting is ultimately done according to BlockTransactions' comparator
         getChildren().sort(Comparator.comparing(TransactionEntry.class::cast));
+        calculateBalances(0);
+    }
 
-        for(Entry entry : getChildren()) {
-            TransactionEntry transactionEntry = (TransactionEntry)entry;
+    /**
+     * Recalculates the running balances of the transaction entries from the provided position, which must be in ascending order
+     */
+    private void calculateBalances(int fromIndex) {
+        TransactionEntry previousEntry = fromIndex > 0 ? (TransactionEntry)getChildren().get(fromIndex - 1) : null;
+        long balance = previousEntry != null ? previousEntry.getBalance() : 0L;
+        long mempoolBalance = previousEntry != null ? previousEntry.getMempoolBalance() : 0L;
+        for(int i = fromIndex; i < getChildren().size(); i++) {
+            TransactionEntry transactionEntry = (TransactionEntry)getChildren().get(i);
             if(transactionEntry.getConfirmations() != 0) {
-                balance += entry.getValue();
+                balance += transactionEntry.getValue();
             } else {
-                mempoolBalance += entry.getValue();
+                mempoolBalance += transactionEntry.getValue();
             }
 
             transactionEntry.setBalance(balance);
+            transactionEntry.setMempoolBalance(mempoolBalance);
         }
 
         setBalance(balance);
         setMempoolBalance(mempoolBalance);
     }
 
-    public void updateTransactions() {
-        List<Entry> current = getWalletTransactions(getWallet()).stream().map(WalletTransaction::getTransactionEntry).collect(Collectors.toList());
-        List<Entry> previous = new ArrayList<>(getChildren());
+    /**
+     * Updates the transaction entries of the transactions referenced, now or previously, by the address nodes whose history has changed
+     */
+    public void updateTransactions(List<WalletNode> historyChangedNodes) {
+        Set<Sha256Hash> changedTransactions = new HashSet<>(incompleteTransactions);
+        incompleteTransactions.clear();
+        for(WalletNode addressNode : historyChangedNodes) {
+            Set<Sha256Hash> previousTransactions = nodeTransactions.remove(addressNode);
+            if(previousTransactions != null) {
+                changedTransactions.addAll(previousTransactions);
+                for(Sha256Hash txid : previousTransactions) {
+                    Set<WalletNode> nodes = transactionNodes.get(txid);
+                    nodes.remove(addressNode);
+                    if(nodes.isEmpty()) {
+                        transactionNodes.remove(txid);
+                    }
+                }
+            }
 
-        List<Entry> entriesAdded = new ArrayList<>(current);
-        entriesAdded.removeAll(previous);
-        getChildren().addAll(entriesAdded);
+            changedTransactions.addAll(indexTransactions(addressNode));
+        }
 
-        List<Entry> entriesRemoved = new ArrayList<>(previous);
-        entriesRemoved.removeAll(current);
-        getChildren().removeAll(entriesRemoved);
+        Set<WalletNode> changedTransactionNodes = new LinkedHashSet<>();
+        for(Sha256Hash txid : changedTransactions) {
+            changedTransactionNodes.addAll(transactionNodes.getOrDefault(txid, Collections.emptySet()));
+        }
 
-        calculateBalances();
+        Map<BlockTransaction, WalletTransaction> walletTransactionMap = new TreeMap<>();
+        for(WalletNode addressNode : changedTransactionNodes) {
+            getWalletTransactions(getWallet(), walletTransactionMap, addressNode, changedTransactions);
+        }
+
+        Map<Sha256Hash, TransactionEntry> current = new HashMap<>();
+        for(WalletTransaction walletTransaction : walletTransactionMap.values()) {
+            current.put(walletTransaction.blockTransaction.getHash(), walletTransaction.getTransactionEntry());
+        }
 
-        List<Entry> entriesComplete = entriesAdded.stream().filter(txEntry -> ((TransactionEntry)txEntry).isComplete()).collect(Collectors.toList());
+        List<TransactionEntry> entriesAdded = new ArrayList<>();
+        List<TransactionEntry> entriesRemoved = new ArrayList<>();
+        for(Sha256Hash txid : changedTransactions) {
+            TransactionEntry previousEntry = transactionEntries.get(txid);
+            TransactionEntry currentEntry = current.get(txid);
+            if(previousEntry != null && !previousEntry.equals(currentEntry)) {
+                entriesRemoved.add(previousEntry);
+            }
+            if(currentEntry != null && !currentEntry.equals(previousEntry)) {
+                entriesAdded.add(currentEntry);
+            }
+        }
+
+        int firstChangedIndex = getChildren().size();
+        for(TransactionEntry entry : entriesRemoved) {
+            int index = indexOf(entry);
+            getChildren().remove(index);
+            transactionEntries.remove(entry.getBlockTransaction().getHash());
+            firstChangedIndex = Math.min(firstChangedIndex, index);
+        }
+
+        for(TransactionEntry entry : entriesAdded) {
+            int index = Collections.binarySearch(getChildren(), entry, Comparator.comparing(TransactionEntry.class::cast));
+            index = index < 0 ? -index - 1 : index;
+            getChildren().add(index, entry);
+            transactionEntries.put(entry.getBlockTransaction().getHash(), entry);
+            firstChangedIndex = Math.min(firstChangedIndex, index);
+        }
+
+        calculateBalances(firstChangedIndex);
+
+        List<TransactionEntry> entriesComplete = entriesAdded.stream().filter(TransactionEntry::isComplete).collect(Collectors.toList());
         if(!entriesComplete.isEmpty()) {
-            List<BlockTransaction> blockTransactions = entriesAdded.stream().map(txEntry -> ((TransactionEntry)txEntry).getBlockTransaction()).collect(Collectors.toList());
-            long totalBlockchainValue = entriesAdded.stream().filter(txEntry -> ((TransactionEntry)txEntry).getConfirmations() > 0).mapToLong(Entry::getValue).sum();
-            long totalMempoolValue = entriesAdded.stream().filter(txEntry -> ((TransactionEntry)txEntry).getConfirmations() == 0).mapToLong(Entry::getValue).sum();
+            List<BlockTransaction> blockTransactions = entriesAdded.stream().map(TransactionEntry::getBlockTransaction).collect(Collectors.toList());
+            long totalBlockchainValue = entriesAdded.stream().filter(txEntry -> txEntry.getConfirmations() > 0).mapToLong(Entry::getValue).sum();
+            long totalMempoolValue = entriesAdded.stream().filter(txEntry -> txEntry.getConfirmations() == 0).mapToLong(Entry::getValue).sum();
             EventManager.get().post(new NewWalletTransactionsEvent(getWallet(), blockTransactions, totalBlockchainValue, totalMempoolValue));
         }
 
         if(entriesAdded.size() > entriesComplete.size()) {
             entriesAdded.removeAll(entriesComplete);
-            for(Entry entry : entriesAdded) {
-                TransactionEntry txEntry = (TransactionEntry)entry;
-                getChildren().remove(txEntry);
-                log.warn("Removing and not notifying incomplete entry " + ((TransactionEntry)entry).getBlockTransaction().getHashAsString() + " value " + txEntry.getValue());
+            for(TransactionEntry txEntry : entriesAdded) {
+                getChildren().remove(indexOf(txEntry));
+                transactionEntries.remove(txEntry.getBlockTransaction().getHash());
+                //Retried on the next update, as the wallet may still have been updating
+                incompleteTransactions.add(txEntry.getBlockTransaction().getHash());
+                log.warn("Removing and not notifying incomplete entry " + txEntry.getBlockTransaction().getHashAsString() + " value " + txEntry.getValue());
             }
         }
     }
 
+    private int indexOf(TransactionEntry entry) {
+        int index = Collections.binarySearch(getChildren(), entry, Comparator.comparing(TransactionEntry.class::cast));
+        if(index >= 0 && getChildren().get(index) == entry) {
+            return index;
+        }
+
+        return getChildren().indexOf(entry);
+    }
+
+    private Set<Sha256Hash> indexTransactions(WalletNode addressNode) {
+        Set<Sha256Hash> txids = new HashSet<>();
+        for(BlockTransactionHashIndex hashIndex : addressNode.getTransactionOutputs()) {
+            txids.add(hashIndex.getHash());
+            if(hashIndex.getSpentBy() != null) {
+                txids.add(hashIndex.getSpentBy().getHash());
+            }
+        }
+
+        nodeTransactions.put(addressNode, txids);
+        for(Sha256Hash txid : txids) {
+            transactionNodes.computeIfAbsent(txid, k -> new HashSet<>()).add(addressNode);
+        }
+
+        return txids;
+    }
+
     private static Collection<WalletTransaction> getWalletTransactions(Wallet wallet) {
         Map<BlockTransaction, WalletTransaction> walletTransactionMap = new TreeMap<>();
 
-        getWalletTransactions(wallet, walletTransactionMap, wallet.getNode(KeyPurpose.RECEIVE));
-        getWalletTransactions(wallet, walletTransactionMap, wallet.getNode(KeyPurpose.CHANGE));
+        for(KeyPurpose keyPurpose : KEY_PURPOSES) {
+            for(WalletNode addressNode : wallet.getNode(keyPurpose).getChildren()) {
+                getWalletTransactions(wallet, walletTransactionMap, addressNode, null);
+            }
+        }
 
         return new ArrayList<>(walletTransactionMap.values());
     }
 
-    private static void getWalletTransactions(Wallet wallet, Map<BlockTransaction, WalletTransaction> walletTransactionMap, WalletNode purposeNode) {
-        KeyPurpose keyPurpose = purposeNode.getKeyPurpose();
-        for(WalletNode addressNode : purposeNode.getChildren()) {
-            for(BlockTransactionHashIndex hashIndex : addressNode.getTransactionOutputs()) {
-                BlockTransaction inputTx = wallet.getTransactions().get(hashIndex.getHash());
-                //A null inputTx here means the wallet is still updating - ignore as the WalletHistoryChangedEvent will run this again
-                if(inputTx != null) {
+    /**
+     * Adds the inputs and outputs of the address node to the wallet transactions that spend or create them, limited to the provided txids if not null
+     */
+    private static void getWalletTransactions(Wallet wallet, Map<BlockTransaction, WalletTransaction> walletTransactionMap, WalletNode addressNode, Set<Sha256Hash> txids) {
+        KeyPurpose keyPurpose = addressNode.getKeyPurpose();
+        for(BlockTransactionHashIndex hashIndex : addressNode.getTransactionOutputs()) {
+            BlockTransaction inputTx = wallet.getTransactions().get(hashIndex.getHash());
+            //A null inputTx here means the wallet is still updating - ignore as the WalletHistoryChangedEvent will run this again
+            if(inputTx != null) {
+                if(txids == null || txids.contains(inputTx.getHash())) {
                     WalletTransaction inputWalletTx = walletTransactionMap.get(inputTx);
                     if(inputWalletTx == null) {
                         inputWalletTx = new WalletTransaction(wallet, inputTx);
                         walletTransactionMap.put(inputTx, inputWalletTx);
                     }
                     inputWalletTx.incoming.put(hashIndex, keyPurpose);
+                }
 
-                    if(hashIndex.getSpentBy() != null) {
-                        BlockTransaction outputTx = wallet.getTransactions().get(hashIndex.getSpentBy().getHash());
-                        if(outputTx != null) {
-                            WalletTransaction outputWalletTx = walletTransactionMap.get(outputTx);
-                            if(outputWalletTx == null) {
-                                outputWalletTx = new WalletTransaction(wallet, outputTx);
-                                walletTransactionMap.put(outputTx, outputWalletTx);
-                            }
-                            outputWalletTx.outgoing.put(hashIndex.getSpentBy(), keyPurpose);
+                if(hashIndex.getSpentBy() != null && (txids == null || txids.contains(hashIndex.getSpentBy().getHash()))) {
+                    BlockTransaction outputTx = wallet.getTransactions().get(hashIndex.getSpentBy().getHash());
+                    if(outputTx != null) {
+                        WalletTransaction outputWalletTx = walletTransactionMap.get(outputTx);
+                        if(outputWalletTx == null) {
+                            outputWalletTx = new WalletTransaction(wallet, outputTx);
+                            walletTransactionMap.put(outputTx, outputWalletTx);
                         }
+                        outputWalletTx.outgoing.put(hashIndex.getSpentBy(), keyPurpose);
                     }
                 }
             }
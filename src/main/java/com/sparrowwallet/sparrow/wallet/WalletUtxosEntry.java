@@ -1,6 +1,7 @@
 package com.sparrowwallet.sparrow.wallet;
 
 import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -17,9 +18,13 @@ public class WalletUtxosEntry extends Entry {
     }
 
     protected void calculateDuplicates() {
+        calculateDuplicates(getChildren());
+    }
+
+    private void calculateDuplicates(Collection<Entry> entries) {
         Map<String, UtxoEntry> addressMap = new HashMap<>();
 
-        for(Entry entry : getChildren()) {
+        for(Entry entry : entries) {
             UtxoEntry utxoEntry = (UtxoEntry)entry;
             String address = utxoEntry.getAddress().toString();
 
@@ -34,18 +39,22 @@ public class WalletUtxosEntry extends Entry {
         }
     }
 
-    public void updateUtxos() {
-        List<Entry> current = getWallet().getWalletUtxos().entrySet().stream().map(entry -> new UtxoEntry(getWallet(), entry.getKey(), HashIndexEntry.Type.OUTPUT, entry.getValue())).collect(Collectors.toList());
-        List<Entry> previous = new ArrayList<>(getChildren());
+    /**
+     * Updates the UTXO entries of the address nodes whose history has changed, leaving the entries of other nodes untouched
+     */
+    public void updateUtxos(List<WalletNode> historyChangedNodes) {
+        Set<WalletNode> changedNodes = new HashSet<>(historyChangedNodes);
+        Set<Entry> current = TxoIndex.get(getWallet()).getWalletUtxos(changedNodes).entrySet().stream()
+                .map(entry -> new UtxoEntry(getWallet(), entry.getKey(), HashIndexEntry.Type.OUTPUT, entry.getValue())).collect(Collectors.toCollection(LinkedHashSet::new));
+        Set<Entry> previous = getChildren().stream().filter(entry -> changedNodes.contains(((UtxoEntry)entry).getNode())).collect(Collectors.toCollection(LinkedHashSet::new));
 
-        List<Entry> entriesAdded = new ArrayList<>(current);
-        entriesAdded.removeAll(previous);
+        List<Entry> entriesAdded = current.stream().filter(entry -> !previous.contains(entry)).collect(Collectors.toList());
         getChildren().addAll(entriesAdded);
 
-        List<Entry> entriesRemoved = new ArrayList<>(previous);
-        entriesRemoved.removeAll(current);
+        Set<Entry> entriesRemoved = previous.stream().filter(entry -> !current.contains(entry)).collect(Collectors.toSet());
         getChildren().removeAll(entriesRemoved);
 
-        calculateDuplicates();
+        //Duplicate addresses can only occur among the UTXOs of a single node, so only the changed nodes need to be checked
+        calculateDuplicates(getChildren().stream().filter(entry -> changedNodes.contains(((UtxoEntry)entry).getNode())).collect(Collectors.toList()));
     }
 }
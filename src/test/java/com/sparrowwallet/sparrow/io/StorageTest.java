@@ -1,6 +1,8 @@
 package com.sparrowwallet.sparrow.io;
 
+import com.google.gson.JsonArray;
 import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.crypto.ECKey;
 import com.sparrowwallet.drongo.policy.PolicyType;
 import com.sparrowwallet.drongo.protocol.ScriptType;
 import com.sparrowwallet.drongo.wallet.Keystore;
@@ -10,6 +12,9 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
 
 public class StorageTest extends IoTest {
     @Test
@@ -71,4 +76,127 @@ public class StorageTest extends IoTest {
         wallet = temp2Storage.loadWallet("pass").wallet;
         Assert.assertTrue(wallet.isValid());
     }
+
+    @Test
+    public void saveBinaryWallet() throws IOException, MnemonicException, StorageException {
+        Storage storage = new Storage(getFile("sparrow-single-wallet"));
+        Wallet wallet = storage.loadWallet("pass").wallet;
+
+        File tempWallet = File.createTempFile("sparrow", "tmp");
+        tempWallet.deleteOnExit();
+
+        Storage tempStorage = new Storage(tempWallet);
+        tempStorage.setKeyDeriver(storage.getKeyDeriver());
+        tempStorage.setEncryptionPubKey(storage.getEncryptionPubKey());
+        tempStorage.setBinaryFormat(true);
+        tempStorage.storeWallet(wallet);
+
+        Storage temp2Storage = new Storage(tempWallet);
+        Wallet binaryWallet = temp2Storage.loadWallet("pass").wallet;
+        Assert.assertTrue(binaryWallet.isValid());
+        Assert.assertTrue(temp2Storage.isBinaryFormat());
+        Assert.assertEquals(Storage.getGson().toJsonTree(wallet), Storage.getGson().toJsonTree(binaryWallet));
+    }
+
+    @Test
+    public void journalWallet() throws IOException, MnemonicException, StorageException {
+        Storage storage = new Storage(getFile("sparrow-single-wallet"));
+        Wallet wallet = storage.loadWallet("pass").wallet;
+
+        File tempWallet = File.createTempFile("sparrow", "tmp");
+        tempWallet.deleteOnExit();
+        File journalFile = new File(tempWallet.getParentFile(), "." + tempWallet.getName() + ".journal");
+        journalFile.deleteOnExit();
+
+        Storage tempStorage = new Storage(tempWallet);
+        tempStorage.setKeyDeriver(storage.getKeyDeriver());
+        tempStorage.setEncryptionPubKey(storage.getEncryptionPubKey());
+        tempStorage.storeWallet(wallet);
+        Assert.assertFalse(journalFile.exists());
+
+        long walletLength = tempWallet.length();
+        wallet.setName("journalled");
+        tempStorage.storeWallet(wallet);
+        Assert.assertTrue(journalFile.exists());
+        Assert.assertEquals(walletLength, tempWallet.length());
+
+        Storage temp2Storage = new Storage(tempWallet);
+        Wallet journalledWallet = temp2Storage.loadWallet("pass").wallet;
+        Assert.assertEquals("journalled", journalledWallet.getName());
+        Assert.assertEquals(Storage.getGson().toJsonTree(wallet), Storage.getGson().toJsonTree(journalledWallet));
+
+        tempStorage.compactJournal(wallet);
+        Assert.assertFalse(journalFile.exists());
+
+        Storage temp3Storage = new Storage(tempWallet);
+        Wallet compactedWallet = temp3Storage.loadWallet("pass").wallet;
+        Assert.assertEquals("journalled", compactedWallet.getName());
+    }
+
+    @Test
+    public void journalRecordErrors() throws IOException {
+        File journalFile = File.createTempFile("sparrow", "journal");
+        journalFile.deleteOnExit();
+        journalFile.delete();
+
+        JsonArray operations = new JsonArray();
+        operations.add("record");
+        WalletJournal.append(journalFile, "snapshot", operations, null, null);
+        long twoRecordsLength = WalletJournal.append(journalFile, "snapshot", operations, null, null);
+        WalletJournal.append(journalFile, "snapshot", operations, null, null);
+
+        //A partially written final record is truncated
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+            randomAccessFile.setLength(journalFile.length() - 1);
+        }
+        Assert.assertEquals(2, WalletJournal.read(journalFile, "snapshot", null, null).size());
+        Assert.assertEquals(twoRecordsLength, journalFile.length());
+
+        //A complete record that cannot be parsed leaves the journal unchanged
+        WalletJournal.append(journalFile, "snapshot", operations, null, null);
+        long journalLength = journalFile.length();
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+            randomAccessFile.seek(twoRecordsLength - 2);
+            randomAccessFile.write('{');
+        }
+        try {
+            WalletJournal.read(journalFile, "snapshot", null, null);
+            Assert.fail("Unreadable record was ignored");
+        } catch(IOException e) {
+            //Expected
+        }
+        Assert.assertEquals(journalLength, journalFile.length());
+    }
+
+    @Test
+    public void chunkedEncryption() throws IOException {
+        ECKey encryptionKey = ECKey.fromPrivate(Utils.hexToBytes("885e5a09708a167ea356a252387aa7c4893d138d632e296df8fbf5c12798bd28"));
+        byte[] magic = "BIE1".getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[10000];
+        new Random(1).nextBytes(data);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        OutputStream outputStream = new ECIESChunkedOutputStream(encrypted, ECKey.fromPublicOnly(encryptionKey), magic, 1024);
+        outputStream.write(data);
+        outputStream.close();
+
+        byte[] encryptedBytes = encrypted.toByteArray();
+        InputStream inputStream = new ECIESChunkedInputStream(new ByteArrayInputStream(encryptedBytes), encryptionKey, magic);
+        Assert.assertArrayEquals(data, inputStream.readAllBytes());
+
+        try {
+            new ECIESChunkedInputStream(new ByteArrayInputStream(Arrays.copyOf(encryptedBytes, encryptedBytes.length - 1024)), encryptionKey, magic).readAllBytes();
+            Assert.fail("Truncated stream was read");
+        } catch(IOException e) {
+            //Expected
+        }
+
+        encryptedBytes[encryptedBytes.length / 2] ^= 1;
+        try {
+            new ECIESChunkedInputStream(new ByteArrayInputStream(encryptedBytes), encryptionKey, magic).readAllBytes();
+            Assert.fail("Modified stream was read");
+        } catch(IOException e) {
+            //Expected
+        }
+    }
 }
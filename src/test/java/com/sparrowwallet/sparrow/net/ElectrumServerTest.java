@@ -0,0 +1,95 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHash;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+public class ElectrumServerTest {
+    @Test
+    public void mergeDuplicatesKeepsHighestHeight() {
+        //Some servers return the same transaction more than once with different heights, in either order
+        List<BlockTransactionHash> references = List.of(getReference(1, 0), getReference(1, 700000), getReference(2, 700001), getReference(2, -1), getReference(3, 0));
+
+        Map<Sha256Hash, Integer> heights = getHeights(ElectrumServer.mergeReferences(null, references));
+        Assert.assertEquals(3, heights.size());
+        Assert.assertEquals(700000, heights.get(getHash(1)).intValue());
+        Assert.assertEquals(700001, heights.get(getHash(2)).intValue());
+        Assert.assertEquals(0, heights.get(getHash(3)).intValue());
+    }
+
+    @Test
+    public void mergeWithExistingReferences() {
+        Set<BlockTransactionHash> existingReferences = new TreeSet<>(List.of(getReference(1, 100), getReference(2, 0)));
+        List<BlockTransactionHash> references = List.of(getReference(1, 0), getReference(2, 200), getReference(3, 300));
+
+        Set<BlockTransactionHash> merged = ElectrumServer.mergeReferences(existingReferences, references);
+        Map<Sha256Hash, Integer> heights = getHeights(merged);
+        Assert.assertEquals(3, merged.size());
+        Assert.assertEquals(100, heights.get(getHash(1)).intValue());
+        Assert.assertEquals(200, heights.get(getHash(2)).intValue());
+        Assert.assertEquals(300, heights.get(getHash(3)).intValue());
+
+        //The existing references are not modified
+        Assert.assertEquals(0, getHeights(existingReferences).get(getHash(2)).intValue());
+    }
+
+    @Test
+    public void mergeLargeHistory() {
+        List<BlockTransactionHash> existingReferences = new ArrayList<>();
+        List<BlockTransactionHash> references = new ArrayList<>();
+        for(int i = 0; i < 5000; i++) {
+            existingReferences.add(getReference(i, i % 2 == 0 ? 0 : i));
+            references.add(getReference(i, i + 1));
+            references.add(getReference(i + 5000, 0));
+        }
+
+        Map<Sha256Hash, Integer> heights = getHeights(ElectrumServer.mergeReferences(existingReferences, references));
+        Assert.assertEquals(10000, heights.size());
+        for(int i = 0; i < 5000; i++) {
+            Assert.assertEquals(i + 1, heights.get(getHash(i)).intValue());
+            Assert.assertEquals(0, heights.get(getHash(i + 5000)).intValue());
+        }
+    }
+
+    @Test
+    public void pathNodes() {
+        List<WalletNode> nodes = new ArrayList<>();
+        for(int i = 0; i < 5000; i++) {
+            nodes.add(new WalletNode("m/0/" + i));
+        }
+        WalletNode duplicate = new WalletNode("m/0/4000");
+        nodes.add(duplicate);
+        nodes.add(null);
+
+        Map<String, WalletNode> pathNodes = ElectrumServer.getPathNodes(nodes, 1000);
+        Assert.assertEquals(4000, pathNodes.size());
+        Assert.assertNull(pathNodes.get("m/0/999"));
+        for(int i = 1000; i < 5000; i++) {
+            WalletNode node = pathNodes.get("m/0/" + i);
+            Assert.assertSame(nodes.get(i), node);
+        }
+    }
+
+    private static Sha256Hash getHash(int id) {
+        return Sha256Hash.of(ByteBuffer.allocate(4).putInt(id).array());
+    }
+
+    private static BlockTransactionHash getReference(int id, int height) {
+        return new BlockTransaction(getHash(id), height, null, null, null);
+    }
+
+    private static Map<Sha256Hash, Integer> getHeights(Collection<BlockTransactionHash> references) {
+        Map<Sha256Hash, Integer> heights = new HashMap<>();
+        for(BlockTransactionHash reference : references) {
+            Assert.assertNull(heights.put(reference.getHash(), reference.getHeight()));
+        }
+
+        return heights;
+    }
+}
@@ -0,0 +1,166 @@
+package com.sparrowwallet.sparrow.wallet;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.OutputGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+public class ParallelBnBUtxoSelectorTest {
+    private static final long INPUT_WEIGHT_UNITS = 272;
+
+    @Test
+    public void matchesExhaustiveSearch() {
+        Random random = new Random(21);
+        int selections = 0;
+        for(int i = 0; i < 500; i++) {
+            //Alternate between spending now costing more and less than spending later, so both the positive and negative waste cases are covered
+            double feeRate = (i % 2 == 0) ? 10.0 : 2.0;
+            double longTermFeeRate = 5.0;
+            long costOfChange = random.nextInt(2000);
+            long noInputsFee = random.nextInt(1000);
+
+            List<OutputGroup> candidates = new ArrayList<>();
+            int size = 1 + random.nextInt(12);
+            for(int j = 0; j < size; j++) {
+                //Repeat some values so that equivalent outputs are present
+                long value = (j > 0 && random.nextInt(4) == 0) ? candidates.get(j - 1).getUtxos().get(0).getValue() : 5000 + random.nextInt(100000);
+                candidates.add(createOutputGroup(candidates.size(), value, INPUT_WEIGHT_UNITS + 4 * random.nextInt(3), feeRate, longTermFeeRate));
+            }
+
+            long subsetValue = 0;
+            for(OutputGroup outputGroup : candidates) {
+                if(random.nextBoolean()) {
+                    subsetValue += outputGroup.getEffectiveValue();
+                }
+            }
+            long targetValue = Math.max(1, subsetValue - noInputsFee - random.nextInt((int)costOfChange + 1));
+
+            Long expectedWaste = getExhaustiveSearchWaste(targetValue + noInputsFee, costOfChange, candidates);
+            Collection<BlockTransactionHashIndex> selectedUtxos = new ParallelBnBUtxoSelector(noInputsFee, costOfChange).select(targetValue, candidates);
+            if(expectedWaste == null) {
+                Assert.assertTrue(selectedUtxos.isEmpty());
+            } else {
+                Assert.assertEquals(expectedWaste.longValue(), getWaste(targetValue + noInputsFee, costOfChange, candidates, selectedUtxos));
+                selections++;
+            }
+        }
+
+        Assert.assertTrue(selections > 100);
+    }
+
+    @Test
+    public void equalValueWithLowerWasteIsIncluded() {
+        //Both outputs have an effective value of 10000, but the second costs less to spend now than later
+        OutputGroup higherWaste = createOutputGroup(0, 11000, 400, 10.0, 2.0);
+        OutputGroup lowerWaste = createOutputGroup(1, 10500, 200, 10.0, 2.0);
+        Assert.assertEquals(higherWaste.getEffectiveValue(), lowerWaste.getEffectiveValue());
+
+        Collection<BlockTransactionHashIndex> selectedUtxos = new ParallelBnBUtxoSelector(0, 0).select(10000, List.of(higherWaste, lowerWaste));
+        Assert.assertEquals(lowerWaste.getUtxos(), new ArrayList<>(selectedUtxos));
+    }
+
+    @Test
+    public void equalValuesSearchedOnce() {
+        //Including any of the first ten outputs makes the target unreachable, and each of those subtrees contains many subsets of the equal values.
+        //Without skipping subsets that are equivalent to those already searched, the tries run out before the subtree omitting them all is reached.
+        List<OutputGroup> candidates = new ArrayList<>();
+        for(int i = 10; i > 0; i--) {
+            candidates.add(createOutputGroup(candidates.size(), 2000 + i, INPUT_WEIGHT_UNITS, 0, 0));
+        }
+        for(int i = 0; i < 16; i++) {
+            candidates.add(createOutputGroup(candidates.size(), 1000, INPUT_WEIGHT_UNITS, 0, 0));
+        }
+        candidates.add(createOutputGroup(candidates.size(), 500, INPUT_WEIGHT_UNITS, 0, 0));
+
+        Collection<BlockTransactionHashIndex> selectedUtxos = new ParallelBnBUtxoSelector(0, 0).select(8500, candidates);
+        Assert.assertEquals(9, selectedUtxos.size());
+        Assert.assertEquals(8500, selectedUtxos.stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+    }
+
+    @Test
+    public void interruptReturnsBestSelection() {
+        Random random = new Random(22);
+        List<OutputGroup> candidates = new ArrayList<>();
+        for(int i = 0; i < 200; i++) {
+            candidates.add(createOutputGroup(i, 5000 + random.nextInt(100000), INPUT_WEIGHT_UNITS, 10.0, 5.0));
+        }
+
+        long targetValue = 1000001;
+        long costOfChange = 100;
+        Thread.currentThread().interrupt();
+        try {
+            Collection<BlockTransactionHashIndex> selectedUtxos = new ParallelBnBUtxoSelector(0, costOfChange).select(targetValue, candidates);
+            Assert.assertTrue(Thread.currentThread().isInterrupted());
+            if(!selectedUtxos.isEmpty()) {
+                getWaste(targetValue, costOfChange, candidates, selectedUtxos);
+            }
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    private static OutputGroup createOutputGroup(int index, long value, long inputWeightUnits, double feeRate, double longTermFeeRate) {
+        Sha256Hash hash = Sha256Hash.of(ByteBuffer.allocate(4).putInt(index).array());
+        OutputGroup outputGroup = new OutputGroup(100, inputWeightUnits, feeRate, longTermFeeRate);
+        outputGroup.add(new BlockTransactionHashIndex(hash, 1, new Date(), 0L, 0, value), true);
+        return outputGroup;
+    }
+
+    /**
+     * Returns the least waste of the selections found by Bitcoin Core's branch and bound search, or null if there are none.
+     * The candidates are considered by descending effective value, and the search does not add to a selection that has reached the target,
+     * so a subset is only a candidate selection if it is within the target range and falls short of the target without its last output.
+     */
+    private static Long getExhaustiveSearchWaste(long target, long costOfChange, List<OutputGroup> candidates) {
+        List<OutputGroup> utxoPool = new ArrayList<>(candidates);
+        utxoPool.sort((a, b) -> Long.compare(b.getEffectiveValue(), a.getEffectiveValue()));
+
+        Long bestWaste = null;
+        for(int subset = 1; subset < (1 << utxoPool.size()); subset++) {
+            long value = 0;
+            long waste = 0;
+            long lastValue = 0;
+            for(int i = 0; i < utxoPool.size(); i++) {
+                if((subset & (1 << i)) != 0) {
+                    OutputGroup outputGroup = utxoPool.get(i);
+                    value += outputGroup.getEffectiveValue();
+                    waste += outputGroup.getFee() - outputGroup.getLongTermFee();
+                    lastValue = outputGroup.getEffectiveValue();
+                }
+            }
+
+            if(value >= target && value <= target + costOfChange && value - lastValue < target) {
+                waste += value - target;
+                if(bestWaste == null || waste < bestWaste) {
+                    bestWaste = waste;
+                }
+            }
+        }
+
+        return bestWaste;
+    }
+
+    private static long getWaste(long target, long costOfChange, List<OutputGroup> candidates, Collection<BlockTransactionHashIndex> selectedUtxos) {
+        Map<BlockTransactionHashIndex, OutputGroup> utxoGroups = new HashMap<>();
+        for(OutputGroup outputGroup : candidates) {
+            utxoGroups.put(outputGroup.getUtxos().get(0), outputGroup);
+        }
+
+        long value = 0;
+        long waste = 0;
+        for(BlockTransactionHashIndex utxo : new HashSet<>(selectedUtxos)) {
+            OutputGroup outputGroup = utxoGroups.get(utxo);
+            Assert.assertNotNull(outputGroup);
+            value += outputGroup.getEffectiveValue();
+            waste += outputGroup.getFee() - outputGroup.getLongTermFee();
+        }
+
+        Assert.assertEquals(selectedUtxos.size(), new HashSet<>(selectedUtxos).size());
+        Assert.assertTrue(value >= target && value <= target + costOfChange);
+        return waste + value - target;
+    }
+}